@@ -44,6 +44,8 @@ package com.upplication.s3fs;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -54,18 +56,23 @@ import com.amazonaws.AmazonClientException;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.CopyObjectResult;
 import com.amazonaws.services.s3.model.CopyPartRequest;
 import com.amazonaws.services.s3.model.CopyPartResult;
 import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.Owner;
@@ -73,7 +80,12 @@ import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectId;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.upplication.s3fs.util.FileChannelInputStream;
 import com.upplication.s3fs.util.S3MultipartOptions;
+import com.upplication.s3fs.util.S3UploadPart;
+import com.upplication.s3fs.util.S3UploadRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,7 +93,7 @@ import org.slf4j.LoggerFactory;
  * Client Amazon S3
  * @see com.amazonaws.services.s3.AmazonS3Client
  */
-public class AmazonS3Client {
+public class AmazonS3Client implements S3ListingSource {
 
 	private static final Logger log = LoggerFactory.getLogger(AmazonS3Client.class);
 	
@@ -110,6 +122,12 @@ public class AmazonS3Client {
 	public S3Object getObject(String bucketName, String key) {
 		return client.getObject(bucketName, key);
 	}
+	/**
+	 * @see com.amazonaws.services.s3.AmazonS3Client#getObject(GetObjectRequest)
+	 */
+	public S3Object getObject(GetObjectRequest request) {
+		return client.getObject(request);
+	}
 	/**
 	 * @see com.amazonaws.services.s3.AmazonS3Client#putObject(String, String, File)
 	 */
@@ -222,7 +240,36 @@ public class AmazonS3Client {
         return client.listNextBatchOfObjects(objectListing);
     }
 
-	public void multipartCopyObject(S3Path s3Source, S3Path s3Target, Long objectSize, S3MultipartOptions opts ) {
+	/**
+	 * @see com.amazonaws.services.s3.AmazonS3Client#listObjectsV2(ListObjectsV2Request)
+	 */
+	@Override
+	public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+		return client.listObjectsV2(request);
+	}
+
+	/**
+	 * Fetch the listing page following the specified one by using its continuation token.
+	 * The owner of the objects is never fetched.
+	 *
+	 * @param previous The previous listing page, it must be truncated
+	 * @return The next listing page
+	 */
+	@Override
+	public ListObjectsV2Result listNextBatchOfObjectsV2(ListObjectsV2Result previous) {
+		final ListObjectsV2Request request = new ListObjectsV2Request()
+				.withBucketName(previous.getBucketName())
+				.withPrefix(previous.getPrefix())
+				.withDelimiter(previous.getDelimiter())
+				.withEncodingType(previous.getEncodingType())
+				.withContinuationToken(previous.getNextContinuationToken())
+				.withFetchOwner(false);
+		if( previous.getMaxKeys() > 0 )
+			request.setMaxKeys(previous.getMaxKeys());
+		return client.listObjectsV2(request);
+	}
+
+	public CompleteMultipartUploadResult multipartCopyObject(S3Path s3Source, S3Path s3Target, Long objectSize, S3MultipartOptions opts ) {
 
 		final String sourceBucketName = s3Source.getBucket();
 		final String sourceObjectKey = s3Source.getKey();
@@ -301,7 +348,162 @@ public class AmazonS3Client {
 				etags);
 
 		log.trace("Completing multipart copy uploadId={}", uploadId);
-		client.completeMultipartUpload(completeRequest);
+		return client.completeMultipartUpload(completeRequest);
+	}
+
+	/**
+	 * Upload the content of a local file using a parallel multipart upload. Each part is
+	 * read by using positional reads on the specified channel, therefore parts are read
+	 * concurrently without copying the file content into memory buffers up-front.
+	 *
+	 * @param channel The {@link FileChannel} of the file to upload
+	 * @param length The number of bytes to upload, starting from the beginning of the file
+	 * @param target The target S3 object
+	 * @param metadata The metadata of the object to create
+	 * @param opts The upload options
+	 * @return The result of the completed multipart upload
+	 * @throws IOException If the upload fails, in that case the multipart upload is aborted
+	 */
+	public CompleteMultipartUploadResult multipartUploadFile(FileChannel channel, long length, S3ObjectId target, ObjectMetadata metadata, S3UploadRequest opts) throws IOException {
+		final long partSize = opts.getChunkSize(length);
+		final List<S3UploadPart> parts = new ArrayList<>();
+		for (long bytePosition = 0; bytePosition < length; bytePosition += partSize) {
+			parts.add(S3UploadPart.upload(bytePosition, Math.min(partSize, length - bytePosition)));
+		}
+		return multipartUpdateObject(channel, target, null, parts, metadata, opts);
+	}
+
+	/**
+	 * Compose the target object with a parallel multipart upload whose parts are either copied
+	 * server-side from the existing target object content or read from a local file.
+	 *
+	 * @param channel The {@link FileChannel} of the local file holding the uploaded ranges
+	 * @param target The target S3 object
+	 * @param etag The ETag of the existing target object, the copy fails if it has been modified in the meanwhile
+	 * @param parts The list of parts composing the object
+	 * @param metadata The metadata of the object to create
+	 * @param opts The upload options
+	 * @return The result of the completed multipart upload
+	 * @throws IOException If the upload fails, in that case the multipart upload is aborted
+	 */
+	public CompleteMultipartUploadResult multipartUpdateObject(FileChannel channel, S3ObjectId target, String etag, List<S3UploadPart> parts, ObjectMetadata metadata, S3UploadRequest opts) throws IOException {
+
+		final String targetBucketName = target.getBucket();
+		final String targetObjectKey = target.getKey();
+
+		InitiateMultipartUploadRequest initiateRequest =
+				new InitiateMultipartUploadRequest(targetBucketName, targetObjectKey, metadata);
+		if( opts.getStorageClass() != null ) {
+			initiateRequest.setStorageClass(opts.getStorageClass());
+		}
+		if( cannedAcl!=null ) {
+			log.debug("Setting canned ACL={}; initiateMultipartUpload targetBucketName={}, targetObjectKey={}", cannedAcl, targetBucketName, targetObjectKey);
+			initiateRequest.withCannedACL(cannedAcl);
+		}
+
+		final String uploadId;
+		try {
+			uploadId = client.initiateMultipartUpload(initiateRequest).getUploadId();
+		}
+		catch (AmazonClientException e) {
+			throw new IOException("Failed to initiate Amazon S3 multipart upload", e);
+		}
+
+		final ExecutorService executor = S3OutputStream.getOrCreateExecutor(opts.getMaxThreads());
+		final List<Callable<PartETag>> partRequests = new ArrayList<>();
+
+		for (int i = 0; i < parts.size(); i++) {
+			final S3UploadPart part = parts.get(i);
+			if( part.isCopy() ) {
+				final CopyPartRequest copyRequest = new CopyPartRequest()
+						.withDestinationBucketName(targetBucketName)
+						.withDestinationKey(targetObjectKey)
+						.withSourceBucketName(targetBucketName)
+						.withSourceKey(targetObjectKey)
+						.withUploadId(uploadId)
+						.withFirstByte(part.getOffset())
+						.withLastByte(part.getOffset() + part.getLength() - 1)
+						.withPartNumber(i+1);
+				if( etag != null )
+					copyRequest.withMatchingETagConstraint(etag);
+				partRequests.add( copyPartETag(client, copyRequest, opts) );
+			}
+			else {
+				partRequests.add( uploadPart(client, channel, target, uploadId, i+1, part.getOffset(), part.getLength(), opts) );
+			}
+		}
+
+		log.trace("Starting multipart upload to {} -- uploadId={}; parts={}", target, uploadId, parts );
+
+		List<PartETag> etags = new ArrayList<>();
+		try {
+			for (Future<PartETag> response : executor.invokeAll(partRequests)) {
+				etags.add(response.get());
+			}
+
+			log.trace("Completing multipart upload uploadId={}", uploadId);
+			return client.completeMultipartUpload(new CompleteMultipartUploadRequest(targetBucketName, targetObjectKey, uploadId, etags));
+		}
+		catch( InterruptedException e ) {
+			// restore the interrupt status so the caller can still observe it
+			Thread.currentThread().interrupt();
+			abortMultipartUpload(target, uploadId);
+			throw new InterruptedIOException("Interrupted while uploading multipart data to Amazon S3 -- uploadId=" + uploadId);
+		}
+		catch( Exception e ) {
+			abortMultipartUpload(target, uploadId);
+			throw new IOException("Failed to upload multipart data to Amazon S3 -- uploadId=" + uploadId, e);
+		}
+	}
+
+	private void abortMultipartUpload(S3ObjectId target, String uploadId) {
+		log.debug("Aborting multipart upload {} for {}", uploadId, target);
+		try {
+			client.abortMultipartUpload(new AbortMultipartUploadRequest(target.getBucket(), target.getKey(), uploadId));
+		}
+		catch (AmazonClientException e) {
+			log.warn("Failed to abort multipart upload {}: {}", uploadId, e.getMessage());
+		}
+	}
+
+	static Callable<PartETag> uploadPart( final AmazonS3 client, final FileChannel channel, final S3ObjectId target, final String uploadId, final int partNumber, final long offset, final long length, final S3MultipartOptions<?> opts ) {
+		return new Callable<PartETag>() {
+			@Override
+			public PartETag call() throws Exception {
+				int attempt=0;
+				while( true ) {
+					attempt++;
+					try {
+						log.trace("Uploading part {} with length {} attempt {} for {} ", partNumber, length, attempt, target);
+						final UploadPartRequest request = new UploadPartRequest()
+								.withBucketName(target.getBucket())
+								.withKey(target.getKey())
+								.withUploadId(uploadId)
+								.withPartNumber(partNumber)
+								.withPartSize(length)
+								.withInputStream(new FileChannelInputStream(channel, offset, length));
+						return client.uploadPart(request).getPartETag();
+					}
+					catch (AmazonClientException e) {
+						if( attempt >= opts.getMaxAttempts() )
+							throw new IOException("Failed to upload multipart data to Amazon S3", e);
+
+						log.debug("Failed to upload part {} attempt {} for {} -- Caused by: {}", partNumber, attempt, target, e.getMessage());
+						Thread.sleep(opts.getRetrySleepWithAttempt(attempt));
+					}
+				}
+			}
+		};
+	}
+
+	static Callable<PartETag> copyPartETag( final AmazonS3 client, final CopyPartRequest request, final S3MultipartOptions<?> opts ) {
+		return new Callable<PartETag>() {
+			@Override
+			public PartETag call() throws Exception {
+				final CopyPartResult result = copyPart0(client,request,opts);
+				return new PartETag(result.getPartNumber(), result.getETag());
+			}
+		};
 	}
 
 	static Callable<CopyPartResult> copyPart( final AmazonS3 client, final CopyPartRequest request, final S3MultipartOptions opts ) {
@@ -327,6 +529,9 @@ public class AmazonS3Client {
 			try {
 				log.trace("Copying multipart {} with length {} attempt {} for {} ", partNumber, len, attempt, objectId);
 				result = client.copyPart(request);
+				// a null result means the copy constraints have not been met
+				if( result == null )
+					throw new IOException("Multipart copy source does not match the expected ETag -- uploadId=" + objectId);
 			}
 			catch (AmazonClientException e) {
 				if( attempt >= opts.getMaxAttempts() )
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.upplication.s3fs.util.S3MultipartOptions;
+import com.upplication.s3fs.util.S3UploadPart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SeekableByteChannel} for a S3 object backed by a local temporary file.
+ * <p>
+ * The content of the existing object is not downloaded when the channel is opened, but
+ * it's fetched block by block by using ranged GET requests only when a region of the object
+ * is read, or partially overwritten. Channels opened with {@link StandardOpenOption#TRUNCATE_EXISTING}
+ * or {@link StandardOpenOption#CREATE_NEW} never download the remote content.
+ * <p>
+ * When the channel is closed the content is uploaded only if it has been modified. When the block
+ * size is at least {@link S3MultipartOptions#MIN_PART_SIZE} the blocks of the existing object that have
+ * not been written are copied server-side by a multipart upload, so that only the modified
+ * ranges are fetched and uploaded again.
+ */
+public class S3ByteChannel implements SeekableByteChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(S3ByteChannel.class);
+
+    /**
+     * Default size of the blocks in which the remote object content is fetched
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 8 << 20;
+
+    private final S3FileSystemProvider provider;
+
+    private final S3Path path;
+
+    private final Path tempFile;
+
+    private final FileChannel file;
+
+    private final int blockSize;
+
+    private final boolean readable;
+
+    private final boolean writable;
+
+    private final boolean append;
+
+    private final boolean deleteOnClose;
+
+    /**
+     * The ETag of the remote object when the channel was opened, used to make sure
+     * all the blocks are fetched from the same object version
+     */
+    private final String etag;
+
+    /**
+     * The content type of the remote object when the channel was opened
+     */
+    private final String contentType;
+
+    /**
+     * The length of the remote object content that's still part of this channel content
+     */
+    private long remoteSize;
+
+    /**
+     * The blocks of the remote object which are available in the local file
+     */
+    private final BitSet fetched = new BitSet();
+
+    /**
+     * The blocks whose remote content has been overwritten through this channel
+     */
+    private final BitSet dirty = new BitSet();
+
+    private long size;
+
+    private long position;
+
+    private boolean modified;
+
+    private volatile boolean closed;
+
+    S3ByteChannel(S3FileSystemProvider provider, S3Path path, Set<? extends OpenOption> options, Path tempFile, int blockSize) throws IOException {
+        if( blockSize <= 0 )
+            throw new IllegalArgumentException("Not a valid byte channel block size: " + blockSize);
+
+        this.append = options.contains(StandardOpenOption.APPEND);
+        this.writable = append || options.contains(StandardOpenOption.WRITE);
+        this.readable = options.contains(StandardOpenOption.READ) || !writable;
+        if( append && options.contains(StandardOpenOption.READ) )
+            throw new IllegalArgumentException("READ + APPEND not allowed");
+        if( append && options.contains(StandardOpenOption.TRUNCATE_EXISTING) )
+            throw new IllegalArgumentException("APPEND + TRUNCATE_EXISTING not allowed");
+
+        final boolean truncate = writable && options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+        final boolean create = writable && options.contains(StandardOpenOption.CREATE);
+        final boolean createNew = writable && options.contains(StandardOpenOption.CREATE_NEW);
+
+        this.provider = provider;
+        this.path = path;
+        this.tempFile = tempFile;
+        this.blockSize = blockSize;
+        this.deleteOnClose = options.contains(StandardOpenOption.DELETE_ON_CLOSE);
+
+        final ObjectMetadata metadata = provider.getObjectMetadata(path);
+        if( metadata == null ) {
+            if( !create && !createNew )
+                throw new NoSuchFileException(path.toString());
+            // the object does not exist, it needs to be created on close
+            this.etag = null;
+            this.contentType = null;
+            this.remoteSize = 0;
+            this.modified = true;
+        }
+        else {
+            if( createNew )
+                throw new FileAlreadyExistsException(path.toString());
+            this.etag = metadata.getETag();
+            this.contentType = metadata.getContentType();
+            this.remoteSize = truncate ? 0 : metadata.getContentLength();
+            this.modified = truncate;
+        }
+
+        this.size = remoteSize;
+        this.file = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        log.trace("Opened S3 byte channel for {} -- remote size: {}; etag: {}", path, remoteSize, etag);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if( !readable )
+            throw new NonReadableChannelException();
+        if( position >= size )
+            return -1;
+
+        final int len = (int) Math.min(dst.remaining(), size - position);
+        if( len == 0 )
+            return 0;
+        ensureFetched(position, position + len);
+
+        final ByteBuffer slice = dst.duplicate();
+        slice.limit(slice.position() + len);
+        int count = 0;
+        while( slice.hasRemaining() ) {
+            final int n = file.read(slice, position + count);
+            if( n <= 0 ) {
+                // the region past the end of local file has never been written, fill with zeros
+                while( slice.hasRemaining() ) slice.put((byte)0);
+                break;
+            }
+            count += n;
+        }
+        dst.position(slice.position());
+        position += len;
+        return len;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        checkOpen();
+        if( !writable )
+            throw new NonWritableChannelException();
+        if( append )
+            position = size;
+
+        final long start = position;
+        final long end = start + src.remaining();
+        prepareWrite(start, end);
+
+        int count = 0;
+        while( src.hasRemaining() ) {
+            count += file.write(src, start + count);
+        }
+
+        // the content written after the end of the remote object does not prevent copying the block head
+        final long overwritten = Math.min(end, remoteSize);
+        if( overwritten > start )
+            dirty.set((int) (start / blockSize), (int) ((overwritten - 1) / blockSize) + 1);
+        position = end;
+        size = Math.max(size, end);
+        modified = true;
+        return count;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long newSize) throws IOException {
+        checkOpen();
+        if( !writable )
+            throw new NonWritableChannelException();
+        if( newSize < 0 )
+            throw new IllegalArgumentException("Negative size");
+
+        if( newSize < size ) {
+            file.truncate(newSize);
+            size = newSize;
+            remoteSize = Math.min(remoteSize, newSize);
+            modified = true;
+        }
+        position = Math.min(position, newSize);
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        checkOpen();
+        return size;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if( newPosition < 0 )
+            throw new IllegalArgumentException("Negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if( closed )
+            return;
+        closed = true;
+
+        try {
+            if( deleteOnClose ) {
+                provider.deleteObject(path);
+            }
+            else if( modified ) {
+                final List<S3UploadPart> parts = updateParts();
+                if( parts != null ) {
+                    log.trace("Updating S3 object {} -- parts: {}", path, parts);
+                    provider.updateFile(path, file, parts, etag, contentType);
+                }
+                else {
+                    // the complete content is required to upload the object
+                    ensureFetched(0, remoteSize);
+                    provider.uploadFile(path, file, size, path.getFileName().toString());
+                }
+            }
+        }
+        finally {
+            file.close();
+            // and delete the temp dir
+            Files.deleteIfExists(tempFile);
+            Files.deleteIfExists(tempFile.getParent());
+        }
+    }
+
+    /**
+     * Creates the list of parts to update the remote object with a multipart upload, copying
+     * the blocks that have not been overwritten from the existing object, up to its end, and uploading
+     * the others. Consecutive ranges of the same kind are merged into a single part.
+     *
+     * @return The list of parts or {@code null} when the object cannot be (or it's not worth to be)
+     * updated partially and it needs to be uploaded again entirely
+     */
+    private List<S3UploadPart> updateParts() throws IOException {
+        if( etag == null || blockSize < S3MultipartOptions.MIN_PART_SIZE || remoteSize < S3MultipartOptions.MIN_PART_SIZE )
+            return null;
+
+        final List<S3UploadPart> parts = new ArrayList<>();
+        final long uploadPartSize = Math.min(Math.max(provider.getUploadChunkSize(), blockSize), S3MultipartOptions.MAX_PART_SIZE / 2);
+        boolean anyCopy = false;
+        long runStart = 0;
+        boolean runCopy = false;
+        for( long start = 0; start < size; start += blockSize ) {
+            final long end = Math.min(start + blockSize, size);
+            // the unmodified block content which is part of the existing object is copied, the rest
+            // uploaded, unless the copied range would be a part smaller than the min followed by an upload
+            long copyEnd = start < remoteSize && !dirty.get((int) (start / blockSize)) ? Math.min(end, remoteSize) : start;
+            if( copyEnd > start && copyEnd < end && !(start > 0 && runCopy) && copyEnd - start < S3MultipartOptions.MIN_PART_SIZE )
+                copyEnd = start;
+
+            for( int i=0; i<2; i++ ) {
+                final boolean copy = i == 0;
+                final long from = copy ? start : copyEnd;
+                final long to = copy ? copyEnd : end;
+                if( from == to )
+                    continue;
+                if( from > 0 && copy != runCopy ) {
+                    addParts(parts, runStart, from, runCopy, uploadPartSize);
+                    runStart = from;
+                }
+                runCopy = copy;
+                anyCopy |= copy;
+            }
+        }
+        if( !anyCopy )
+            return null;
+        addParts(parts, runStart, size, runCopy, uploadPartSize);
+
+        if( parts.size() > S3MultipartOptions.MAX_PARTS )
+            return null;
+
+        // the ranges to upload need to be entirely available in the local file
+        for( S3UploadPart part : parts ) {
+            if( !part.isCopy() )
+                ensureFetched(part.getOffset(), part.getOffset() + part.getLength());
+        }
+        return parts;
+    }
+
+    /**
+     * Splits the range {@code [start, end)} in parts, all of them except the last are at least {@code partSize}
+     * long for uploads, while copy parts are split evenly not to exceed {@link S3MultipartOptions#MAX_PART_SIZE}
+     */
+    private static void addParts(List<S3UploadPart> parts, long start, long end, boolean copy, long partSize) {
+        final long length = end - start;
+        final long count = copy
+                ? (length + S3MultipartOptions.MAX_PART_SIZE - 1) / S3MultipartOptions.MAX_PART_SIZE
+                : Math.max(1, length / partSize);
+        final long size = copy ? (length + count - 1) / count : partSize;
+        long offset = start;
+        for( long i=0; i<count; i++ ) {
+            final long len = i == count-1 ? end - offset : size;
+            parts.add( copy ? S3UploadPart.copy(offset, len) : S3UploadPart.upload(offset, len) );
+            offset += len;
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if( closed )
+            throw new ClosedChannelException();
+    }
+
+    /**
+     * Makes sure the remote blocks partially overwritten by a write are available locally,
+     * the blocks completely overwritten are marked as fetched without downloading them
+     */
+    private void prepareWrite(long start, long end) throws IOException {
+        if( start >= remoteSize || start == end )
+            return;
+
+        final int first = (int) (start / blockSize);
+        final int last = (int) ((Math.min(end, remoteSize) - 1) / blockSize);
+        for( int block=first; block<=last; block++ ) {
+            if( fetched.get(block) )
+                continue;
+            final long blockStart = (long) block * blockSize;
+            final long blockEnd = Math.min(blockStart + blockSize, remoteSize);
+            if( start <= blockStart && end >= blockEnd )
+                fetched.set(block);
+            else
+                fetchBlocks(block, block+1);
+        }
+    }
+
+    /**
+     * Makes sure the remote content in the range {@code [start, end)} is available in the local file
+     */
+    private void ensureFetched(long start, long end) throws IOException {
+        end = Math.min(end, remoteSize);
+        if( start >= end )
+            return;
+
+        final int first = (int) (start / blockSize);
+        final int last = (int) ((end - 1) / blockSize);
+        int block = fetched.nextClearBit(first);
+        while( block <= last ) {
+            // fetch the contiguous run of missing blocks with a single request
+            final int next = Math.min(fetched.nextSetBit(block) == -1 ? Integer.MAX_VALUE : fetched.nextSetBit(block), last + 1);
+            fetchBlocks(block, next);
+            block = fetched.nextClearBit(next);
+        }
+    }
+
+    /**
+     * Download the remote blocks in the range {@code [from, to)} into the local file
+     */
+    private void fetchBlocks(int from, int to) throws IOException {
+        final long start = (long) from * blockSize;
+        final long end = Math.min((long) to * blockSize, remoteSize);
+        log.trace("Fetching S3 object {} range [{}-{}]", path, start, end - 1);
+
+        final GetObjectRequest request = new GetObjectRequest(path.getBucket(), path.getKey())
+                .withRange(start, end - 1);
+        if( etag != null )
+            request.withMatchingETagConstraint(etag);
+
+        final S3Object object = path.getFileSystem().getClient().getObject(request);
+        if( object == null )
+            throw new IOException(String.format("The S3 object %s has been modified while the channel was open", path));
+
+        try (InputStream stream = object.getObjectContent()) {
+            final byte[] buffer = new byte[64 * 1024];
+            long offset = start;
+            int n;
+            while( offset < end && (n = stream.read(buffer, 0, (int) Math.min(buffer.length, end - offset))) != -1 ) {
+                final ByteBuffer buf = ByteBuffer.wrap(buffer, 0, n);
+                while( buf.hasRemaining() ) {
+                    offset += file.write(buf, offset);
+                }
+            }
+            if( offset < end )
+                throw new IOException(String.format("Unexpected end of data reading S3 object %s at offset %d", path, offset));
+        }
+
+        fetched.set(from, to);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upplication.s3fs;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import com.upplication.s3fs.util.S3Globs;
+
+/**
+ * A {@link DirectoryStream.Filter} on the directory entry names which can be pushed down into
+ * the listing request: when passed to {@link S3FileSystemProvider#newDirectoryStream(Path, DirectoryStream.Filter)}
+ * the literal prefix of the accepted names is used as listing prefix, and the names are matched
+ * on the raw listing keys before the entry paths are created.
+ * <p>
+ * Any other filter is applied to the paths of the listed entries.
+ */
+public abstract class S3DirectoryFilter implements DirectoryStream.Filter<Path> {
+
+    private final String namePrefix;
+
+    protected S3DirectoryFilter(String namePrefix) {
+        this.namePrefix = namePrefix != null ? namePrefix : "";
+    }
+
+    /**
+     * @return The prefix shared by all the accepted names, used as listing prefix
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    /**
+     * @param name The name of a directory entry
+     * @return {@code true} if the entry is accepted
+     */
+    public abstract boolean acceptName(String name);
+
+    @Override
+    public boolean accept(Path entry) {
+        final Path name = entry.getFileName();
+        return name != null && acceptName(name.toString());
+    }
+
+    /**
+     * @param prefix The name prefix
+     * @return A filter accepting the entries whose name starts with the specified prefix
+     */
+    public static S3DirectoryFilter prefix(final String prefix) {
+        return new S3DirectoryFilter(prefix) {
+            @Override
+            public boolean acceptName(String name) {
+                return name.startsWith(prefix);
+            }
+        };
+    }
+
+    /**
+     * @param suffix The name suffix
+     * @return A filter accepting the entries whose name ends with the specified suffix
+     */
+    public static S3DirectoryFilter suffix(final String suffix) {
+        return new S3DirectoryFilter("") {
+            @Override
+            public boolean acceptName(String name) {
+                return name.endsWith(suffix);
+            }
+        };
+    }
+
+    /**
+     * @param glob The glob pattern, see {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * @return A filter accepting the entries whose name matches the specified glob pattern
+     */
+    public static S3DirectoryFilter glob(String glob) {
+        final Pattern pattern = Pattern.compile(S3Globs.toRegex(glob));
+        return new S3DirectoryFilter(S3Globs.literalPrefix(glob)) {
+            @Override
+            public boolean acceptName(String name) {
+                return pattern.matcher(name).matches();
+            }
+        };
+    }
+}
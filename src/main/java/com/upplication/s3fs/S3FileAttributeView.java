@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Attribute view of a S3 path named {@code s3}, exposing the basic file attributes along
+ * with the S3 specific ones: {@code eTag}, {@code storageClass}, {@code versionId}, {@code contentType}
+ * and {@code userMetadata}. When requested as a {@link BasicFileAttributeView} the view is named {@code basic}
+ */
+public class S3FileAttributeView implements BasicFileAttributeView {
+
+    public static final String NAME = "s3";
+
+    static final String BASIC_NAME = "basic";
+
+    static final List<String> BASIC_ATTRIBUTES = Arrays.asList(
+            "lastModifiedTime", "lastAccessTime", "creationTime", "size",
+            "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey");
+
+    static final List<String> S3_ATTRIBUTES = Arrays.asList(
+            "eTag", "storageClass", "versionId", "contentType", "userMetadata");
+
+    private final S3FileSystemProvider provider;
+
+    private final S3Path path;
+
+    private final String name;
+
+    S3FileAttributeView(S3FileSystemProvider provider, S3Path path) {
+        this(provider, path, NAME);
+    }
+
+    S3FileAttributeView(S3FileSystemProvider provider, S3Path path, String name) {
+        this.provider = provider;
+        this.path = path;
+        this.name = name;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public S3FileAttributes readAttributes() throws IOException {
+        return provider.readAttributes(path, S3FileAttributes.class);
+    }
+
+    @Override
+    public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException {
+        throw new IOException("Setting the times of a S3 object is not supported: " + path.toUri());
+    }
+
+    /**
+     * Collect the requested attributes in a map as defined by {@link java.nio.file.Files#readAttributes(java.nio.file.Path, String, java.nio.file.LinkOption...)}
+     *
+     * @param attrs The path attributes
+     * @param view The view name, either {@code basic} or {@code s3}
+     * @param names The comma separated list of attribute names or {@code *} for all of them
+     * @return The map of the requested attributes
+     */
+    static Map<String,Object> toMap(S3FileAttributes attrs, String view, String names) {
+        final boolean s3 = NAME.equals(view);
+        final Map<String,Object> result = new LinkedHashMap<>();
+        for( String name : names.split(",") ) {
+            name = name.trim();
+            if( "*".equals(name) ) {
+                for( String it : BASIC_ATTRIBUTES )
+                    result.put(it, get(attrs, it));
+                if( s3 ) {
+                    for( String it : S3_ATTRIBUTES )
+                        result.put(it, get(attrs, it));
+                }
+            }
+            else if( BASIC_ATTRIBUTES.contains(name) || (s3 && S3_ATTRIBUTES.contains(name)) ) {
+                result.put(name, get(attrs, name));
+            }
+            else {
+                throw new IllegalArgumentException(String.format("Unknown file attribute '%s' for view '%s'", name, view));
+            }
+        }
+        return result;
+    }
+
+    private static Object get(S3FileAttributes attrs, String name) {
+        switch (name) {
+            case "lastModifiedTime": return attrs.lastModifiedTime();
+            case "lastAccessTime": return attrs.lastAccessTime();
+            case "creationTime": return attrs.creationTime();
+            case "size": return attrs.size();
+            case "isRegularFile": return attrs.isRegularFile();
+            case "isDirectory": return attrs.isDirectory();
+            case "isSymbolicLink": return attrs.isSymbolicLink();
+            case "isOther": return attrs.isOther();
+            case "fileKey": return attrs.fileKey();
+            case "eTag": return attrs.eTag();
+            case "storageClass": return attrs.storageClass();
+            case "versionId": return attrs.versionId();
+            case "contentType": return attrs.contentType();
+            case "userMetadata": return attrs.userMetadata();
+            default: throw new IllegalArgumentException("Unknown file attribute: " + name);
+        }
+    }
+}
@@ -43,9 +43,26 @@ package com.upplication.s3fs;
 
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.upplication.s3fs.util.S3MetadataObjectSummary;
 
 import static java.lang.String.format;
 
+/**
+ * Immutable attributes of a S3 path. The attributes keep track of the time when
+ * they have been fetched, so that their staleness can be verified before using them.
+ * <p>
+ * Besides the basic attributes, regular files expose the S3 object ETag, storage class,
+ * version id, content type and user metadata, as far as they were returned by the request
+ * which fetched them: a listing returns only the ETag and the storage class, while a HEAD
+ * request returns all of them. The attributes not available are {@code null}.
+ */
 public class S3FileAttributes implements BasicFileAttributes {
 	
 	private final FileTime lastModifiedTime;
@@ -53,14 +70,103 @@ public class S3FileAttributes implements BasicFileAttributes {
 	private final boolean directory;
 	private final boolean regularFile;
 	private final String key;
+	private final long timestamp;
+	private final String eTag;
+	private final String storageClass;
+	private final String versionId;
+	private final String contentType;
+	private final Map<String,String> userMetadata;
 
 	public S3FileAttributes(String key, FileTime lastModifiedTime, long size,
 			boolean isDirectory, boolean isRegularFile) {
+		this(key, lastModifiedTime, size, isDirectory, isRegularFile, null, null, null);
+	}
+
+	private S3FileAttributes(String key, FileTime lastModifiedTime, long size,
+			boolean isDirectory, boolean isRegularFile, String eTag, String storageClass, ObjectMetadata metadata) {
 		this.key = key;
 		this.lastModifiedTime = lastModifiedTime;
 		this.size = size;
 		directory = isDirectory;
 		regularFile = isRegularFile;
+		timestamp = System.currentTimeMillis();
+		this.eTag = eTag;
+		this.storageClass = storageClass;
+		this.versionId = metadata != null ? metadata.getVersionId() : null;
+		this.contentType = metadata != null ? metadata.getContentType() : null;
+		this.userMetadata = metadata != null && metadata.getUserMetadata() != null
+				? Collections.unmodifiableMap(copyOf(metadata.getUserMetadata()))
+				: null;
+	}
+
+	/**
+	 * Create the attributes of a path given the object summary returned by a lookup, that's
+	 * either the summary of the object itself or the summary of its first child when the path
+	 * is a directory.
+	 *
+	 * @param pathKey The key of the path
+	 * @param objectSummary The {@link S3ObjectSummary} resolved for the path
+	 * @return The path {@link S3FileAttributes}
+	 */
+	public static S3FileAttributes create(String pathKey, S3ObjectSummary objectSummary) {
+		// parse the data to BasicFileAttributes.
+		FileTime lastModifiedTime = null;
+		if( objectSummary.getLastModified() != null ) {
+			lastModifiedTime = FileTime.from(objectSummary.getLastModified().getTime(), TimeUnit.MILLISECONDS);
+		}
+
+		long size =  objectSummary.getSize();
+		boolean directory = false;
+		boolean regularFile = false;
+		String key = objectSummary.getKey();
+		// check if is a directory and exists the key of this directory at amazon s3
+		if (objectSummary.getKey().equals(pathKey + "/") && objectSummary.getKey().endsWith("/")) {
+			directory = true;
+		}
+		// is a directory but not exists at amazon s3
+		else if ((!objectSummary.getKey().equals(pathKey) || "".equals(pathKey)) && objectSummary.getKey().startsWith(pathKey)){
+			directory = true;
+			// no metadata, we fake one
+			size = 0;
+			// delete extra part
+			key = pathKey + "/";
+		}
+		// is a file:
+		else {
+			regularFile = true;
+		}
+
+		if( !regularFile )
+			return new S3FileAttributes(key, lastModifiedTime, size, directory, false);
+
+		final ObjectMetadata metadata = objectSummary instanceof S3MetadataObjectSummary
+				? ((S3MetadataObjectSummary) objectSummary).getMetadata()
+				: null;
+		return new S3FileAttributes(key, lastModifiedTime, size, false, true, objectSummary.getETag(), objectSummary.getStorageClass(), metadata);
+	}
+
+	/**
+	 * Create the attributes of a directory which exists only as a common prefix of other keys.
+	 * The last modified time is unknown, see {@link #directory(String, FileTime)}
+	 *
+	 * @param dirKey The directory key, ending with a slash
+	 * @return The directory {@link S3FileAttributes}
+	 */
+	public static S3FileAttributes directory(String dirKey) {
+		return directory(dirKey, null);
+	}
+
+	/**
+	 * Create the attributes of a directory which exists only as a common prefix of other keys
+	 *
+	 * @param dirKey The directory key, ending with a slash
+	 * @param lastModifiedTime The last modified time of the first object in the directory,
+	 *        or {@code null} when unknown. In this case {@link S3FileSystemProvider} does not use these attributes
+	 *        when reading the directory attributes and looks up the directory instead
+	 * @return The directory {@link S3FileAttributes}
+	 */
+	public static S3FileAttributes directory(String dirKey, FileTime lastModifiedTime) {
+		return new S3FileAttributes(dirKey, lastModifiedTime, 0, true, false);
 	}
 
 	@Override
@@ -103,15 +209,75 @@ public class S3FileAttributes implements BasicFileAttributes {
 		return size;
 	}
 
+	/**
+	 * The ETag of regular files, so that a change of the object content can be detected
+	 * comparing the file keys, or the object key for directories
+	 */
 	@Override
 	public Object fileKey() {
+		return eTag != null ? eTag : key;
+	}
+
+	/**
+	 * @return The object key
+	 */
+	public String getKey() {
 		return key;
 	}
 
+	/**
+	 * @return The object ETag or {@code null} for directories
+	 */
+	public String eTag() {
+		return eTag;
+	}
+
+	/**
+	 * @return The object storage class or {@code null} for directories
+	 */
+	public String storageClass() {
+		return storageClass;
+	}
+
+	/**
+	 * @return The object version id or {@code null} if not available
+	 */
+	public String versionId() {
+		return versionId;
+	}
+
+	/**
+	 * @return The object content type or {@code null} if not available
+	 */
+	public String contentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return The object user metadata or {@code null} if not available
+	 */
+	public Map<String,String> userMetadata() {
+		return userMetadata;
+	}
+
+	/**
+	 * @return The time in milliseconds when these attributes have been fetched
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	// the user metadata keys are case insensitive as in the ObjectMetadata map
+	private static Map<String,String> copyOf(Map<String,String> userMetadata) {
+		final Map<String,String> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		result.putAll(userMetadata);
+		return result;
+	}
+
 	@Override
 	public String toString() {
 		return format(
-				"[%s: lastModified=%s, size=%s, isDirectory=%s, isRegularFile=%s]",
-				key, lastModifiedTime, size, directory, regularFile);
+				"[%s: lastModified=%s, size=%s, isDirectory=%s, isRegularFile=%s, eTag=%s, storageClass=%s]",
+				key, lastModifiedTime, size, directory, regularFile, eTag, storageClass);
 	}
 }
@@ -50,22 +50,38 @@ import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.upplication.s3fs.util.S3Globs;
+import com.upplication.s3fs.util.S3Inventory;
+import com.upplication.s3fs.util.S3ListingIndex;
+import com.upplication.s3fs.util.S3ListingOptions;
+import com.upplication.s3fs.util.S3MetadataCache;
+import com.upplication.s3fs.util.S3ObjectIndex;
 
 public class S3FileSystem extends FileSystem {
 	
 	private final S3FileSystemProvider provider;
 	private final AmazonS3Client client;
 	private final String endpoint;
+	private final S3MetadataCache metadataCache;
+	private final S3ListingOptions listingOptions;
+	private final S3Inventory inventory;
+	private final S3ListingIndex listingIndex;
 
 	public S3FileSystem(S3FileSystemProvider provider, AmazonS3Client client,
 			String endpoint) {
 		this.provider = provider;
 		this.client = client;
 		this.endpoint = endpoint;
+		this.metadataCache = new S3MetadataCache(provider.getProperties());
+		this.listingOptions = new S3ListingOptions(provider.getProperties());
+		this.inventory = new S3Inventory(provider.getProperties(), client);
+		this.listingIndex = new S3ListingIndex(provider.getProperties(), client, listingOptions);
 	}
 
 	@Override
@@ -111,7 +127,7 @@ public class S3FileSystem extends FileSystem {
 
 	@Override
 	public Set<String> supportedFileAttributeViews() {
-		return ImmutableSet.of("basic");
+		return ImmutableSet.of("basic", S3FileAttributeView.NAME);
 	}
 
 	@Override
@@ -123,9 +139,33 @@ public class S3FileSystem extends FileSystem {
 		return new S3Path(this, first, more);
 	}
 
+	/**
+	 * Supports the {@code glob} and {@code regex} syntaxes, the pattern is matched
+	 * against the string representation of the path e.g. {@code /bucket/dir/file.txt}
+	 */
 	@Override
 	public PathMatcher getPathMatcher(String syntaxAndPattern) {
-		throw new UnsupportedOperationException();
+		final int p = syntaxAndPattern.indexOf(':');
+		if( p <= 0 )
+			throw new IllegalArgumentException("Path matcher should be specified as `syntax:pattern`: " + syntaxAndPattern);
+		final String syntax = syntaxAndPattern.substring(0, p);
+		final String pattern = syntaxAndPattern.substring(p + 1);
+
+		final String regex;
+		if( "glob".equalsIgnoreCase(syntax) )
+			regex = S3Globs.toRegex(pattern);
+		else if( "regex".equalsIgnoreCase(syntax) )
+			regex = pattern;
+		else
+			throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+
+		final Pattern compiled = Pattern.compile(regex);
+		return new PathMatcher() {
+			@Override
+			public boolean matches(Path path) {
+				return compiled.matcher(path.toString()).matches();
+			}
+		};
 	}
 
 	@Override
@@ -142,6 +182,85 @@ public class S3FileSystem extends FileSystem {
 		return client;
 	}
 
+	/**
+	 * @return The cache of the object metadata resolved for the paths of this file system
+	 */
+	public S3MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * @return The options used to list the content of the directories of this file system
+	 */
+	public S3ListingOptions getListingOptions() {
+		return listingOptions;
+	}
+
+	/**
+	 * @return The S3 Inventory used as listing source, when configured
+	 */
+	public S3Inventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * @return The local index of the objects under the configured prefixes
+	 */
+	public S3ListingIndex getListingIndex() {
+		return listingIndex;
+	}
+
+	/**
+	 * The index answering the listings and the lookups of the specified key: the local listing
+	 * index of the prefix containing the key or the S3 Inventory snapshot of the bucket, when
+	 * they are configured and up to date. The inventory snapshot is not used for the keys
+	 * modified through this file system
+	 *
+	 * @param bucket The bucket name
+	 * @param key The looked up key or the listed prefix
+	 * @return The index or {@code null} when the live requests have to be used
+	 */
+	public S3ObjectIndex getObjectIndex(String bucket, String key) {
+		final S3ObjectIndex result = listingIndex.getIndex(bucket, key);
+		return result != null ? result : inventory.getSnapshot(bucket, key);
+	}
+
+	/**
+	 * The source of the listings of the specified prefix: the index containing it, see
+	 * {@link #getObjectIndex(String, String)}, otherwise the live listing requests
+	 *
+	 * @param bucket The bucket name
+	 * @param prefix The listed prefix
+	 * @return The listing source
+	 */
+	public S3ListingSource getListingSource(String bucket, String prefix) {
+		final S3ObjectIndex index = getObjectIndex(bucket, prefix);
+		return index != null ? index : client;
+	}
+
+	/**
+	 * Update the metadata held for a path modified through this file system
+	 *
+	 * @param path The modified path
+	 * @param summary The summary of the object after the change or {@code null} if not known
+	 */
+	void modified(S3Path path, S3ObjectSummary summary) {
+		metadataCache.update(path, summary);
+		listingIndex.modified(path.getBucket(), path.getKey(), summary);
+		inventory.modified(path.getBucket(), path.getKey());
+	}
+
+	/**
+	 * Update the metadata held for a path deleted through this file system
+	 *
+	 * @param path The deleted path
+	 */
+	void deleted(S3Path path) {
+		metadataCache.update(path, null);
+		listingIndex.deleted(path.getBucket(), path.getKey());
+		inventory.modified(path.getBucket(), path.getKey());
+	}
+
 	/**
 	 * get the endpoint associated with this fileSystem.
 	 * 
@@ -41,16 +41,19 @@
 
 package com.upplication.s3fs;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
-import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
@@ -65,42 +68,63 @@ import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
-import java.nio.file.attribute.FileTime;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.Protocol;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.Grant;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.Owner;
 import com.amazonaws.services.s3.model.Permission;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.upplication.s3fs.util.FileChannelInputStream;
+import com.upplication.s3fs.util.FileTypeDetector;
 import com.upplication.s3fs.util.IOUtils;
+import com.upplication.s3fs.util.S3MetadataObjectSummary;
 import com.upplication.s3fs.util.S3MultipartOptions;
 import com.upplication.s3fs.util.S3ObjectSummaryLookup;
+import com.upplication.s3fs.util.S3UploadPart;
 import com.upplication.s3fs.util.S3UploadRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -148,6 +172,13 @@ public class S3FileSystemProvider extends FileSystemProvider {
 
 	private Properties props;
 
+	/**
+	 * @return The properties used to configure this provider
+	 */
+	Properties getProperties() {
+		return props;
+	}
+
 	@Override
 	public String getScheme() {
 		return "s3";
@@ -231,7 +262,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
 
     @Override
     public DirectoryStream<Path> newDirectoryStream(Path dir,
-                                                    DirectoryStream.Filter<? super Path> filter) throws IOException {
+                                                    final DirectoryStream.Filter<? super Path> filter) throws IOException {
 
         Preconditions.checkArgument(dir instanceof S3Path,
                 "path must be an instance of %s", S3Path.class.getName());
@@ -245,7 +276,173 @@ public class S3FileSystemProvider extends FileSystemProvider {
 
             @Override
             public Iterator<Path> iterator() {
-                return new S3Iterator(s3Path.getFileSystem(), s3Path.getBucket(), s3Path.getKey() + "/");
+                final S3Iterator it = new S3Iterator(s3Path.getFileSystem(), s3Path.getBucket(), s3Path.getKey() + "/");
+                if( filter instanceof S3DirectoryFilter ) {
+                    // push the filter down into the listing request
+                    it.setNameFilter((S3DirectoryFilter) filter);
+                    return it;
+                }
+                if( filter == null )
+                    return it;
+                return Iterators.filter(it, new Predicate<Path>() {
+                    @Override
+                    public boolean apply(Path entry) {
+                        try {
+                            return filter.accept(entry);
+                        }
+                        catch (IOException e) {
+                            throw new DirectoryIteratorException(e);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Open a directory stream listing the directory content concurrently by key ranges. The ranges
+     * are split by the leading character of the entry names, the entries are returned in the same
+     * order of {@link #newDirectoryStream(Path, DirectoryStream.Filter)}.
+     *
+     * @param dir The directory to list
+     * @param partitions The number of key ranges listed concurrently
+     * @return The directory stream
+     * @see S3PartitionedIterator
+     */
+    public DirectoryStream<Path> newPartitionedDirectoryStream(Path dir, int partitions) {
+        Preconditions.checkArgument(dir instanceof S3Path,
+                "path must be an instance of %s", S3Path.class.getName());
+        final S3Path s3Path = (S3Path) dir;
+        return newPartitionedDirectoryStream(s3Path, S3PartitionedIterator.alphabetSplit(s3Path.getKey() + "/", partitions));
+    }
+
+    /**
+     * Open a directory stream listing the directory content concurrently by key ranges. The ranges
+     * are split at evenly spaced keys of the given sample, e.g. the keys of a previous listing.
+     *
+     * @param dir The directory to list
+     * @param sample The sorted sample of the keys in the directory
+     * @param partitions The number of key ranges listed concurrently
+     * @return The directory stream
+     * @see S3PartitionedIterator
+     */
+    public DirectoryStream<Path> newPartitionedDirectoryStream(Path dir, List<String> sample, int partitions) {
+        Preconditions.checkArgument(dir instanceof S3Path,
+                "path must be an instance of %s", S3Path.class.getName());
+        final S3Path s3Path = (S3Path) dir;
+        return newPartitionedDirectoryStream(s3Path, S3PartitionedIterator.sampleSplit(s3Path.getKey() + "/", sample, partitions));
+    }
+
+    /**
+     * Walk the directory tree rooted at the given path in depth-first pre-order, as
+     * {@link Files#walk(Path, int, java.nio.file.FileVisitOption...)} does, by using a single
+     * listing of all the keys under the path instead of a listing for each directory
+     *
+     * @param start The path where the walk starts
+     * @param maxDepth The max number of directory levels to visit
+     * @return The stream of the visited paths, starting with the start path
+     * @throws NoSuchFileException If the start path does not exist
+     * @throws IOException If the start path attributes cannot be read
+     * @see S3WalkIterator
+     */
+    public Stream<Path> walk(Path start, int maxDepth) throws IOException {
+        Preconditions.checkArgument(start instanceof S3Path,
+                "path must be an instance of %s", S3Path.class.getName());
+        Preconditions.checkArgument(maxDepth >= 0, "max depth should be a positive number: %s", maxDepth);
+        final S3Path s3Path = (S3Path) start;
+
+        final S3WalkIterator it = new S3WalkIterator(s3Path, maxDepth);
+        if( !it.hasEntries() ) {
+            // the start path is either a file, an empty directory or it does not exist
+            readAttributes(s3Path, BasicFileAttributes.class);
+            return Stream.of(start);
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * List the directory content as a stream which can be efficiently processed in parallel:
+     * unlike the stream returned by {@link Files#list(Path)}, which wraps the directory stream
+     * iterator, the listing pages are handed off to the parallel workers as soon as they are fetched
+     *
+     * @param dir The directory to list
+     * @return The stream of the directory entries
+     * @see S3PageSpliterator
+     */
+    public Stream<Path> list(Path dir) {
+        return list(dir, 1);
+    }
+
+    /**
+     * List the directory content as a stream which can be efficiently processed in parallel,
+     * the directory is split in key ranges which are listed concurrently by the parallel workers
+     *
+     * @param dir The directory to list
+     * @param partitions The number of key ranges
+     * @return The stream of the directory entries
+     * @see S3PageSpliterator
+     * @see S3PartitionedIterator#alphabetSplit(String, int)
+     */
+    public Stream<Path> list(Path dir, int partitions) {
+        Preconditions.checkArgument(dir instanceof S3Path,
+                "path must be an instance of %s", S3Path.class.getName());
+        final S3Path s3Path = (S3Path) dir;
+        final S3FileSystem fs = s3Path.getFileSystem();
+        final String key = s3Path.getKey() + "/";
+        final List<String> boundaries = S3PartitionedIterator.alphabetSplit(key, partitions);
+        return StreamSupport.stream(new S3PageSpliterator(fs, s3Path.getBucket(), key, boundaries, fs.getListingOptions().getPrefetchDepth()), false);
+    }
+
+    /**
+     * Find the paths matching a glob pattern, listing only the directories which can contain
+     * matching paths. For example {@code glob(dir, "sample_*}{@code /reads_*.fq.gz")} lists
+     * only the directories whose name starts with {@code sample_} and their entries whose
+     * name starts with {@code reads_}.
+     *
+     * @param dir The directory where the pattern is resolved
+     * @param pattern The glob pattern, relative to the directory, see {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * @return The list of the matching paths
+     * @see S3GlobLister
+     */
+    public List<Path> glob(Path dir, String pattern) {
+        Preconditions.checkArgument(dir instanceof S3Path,
+                "path must be an instance of %s", S3Path.class.getName());
+        final S3Path s3Path = (S3Path) dir;
+        return new S3GlobLister(s3Path.getFileSystem()).list(s3Path, pattern);
+    }
+
+    /**
+     * Scan all the objects under a directory, saving the scan progress to a local checkpoint file.
+     * When the checkpoint file exists, the scan resumes from it and the objects already visited are skipped.
+     * A new scan splits the key space in ranges scanned concurrently by the leading character of the entry names.
+     *
+     * @param dir The directory to scan
+     * @param checkpointFile The local file where the scan progress is saved
+     * @param partitions The number of key ranges scanned concurrently
+     * @param visitor The action applied to each object
+     * @return The number of objects visited by this invocation
+     * @throws IOException If the visitor fails or the checkpoint cannot be read or saved
+     * @see S3Scanner
+     */
+    public long scan(Path dir, Path checkpointFile, int partitions, S3Scanner.Visitor visitor) throws IOException {
+        Preconditions.checkArgument(dir instanceof S3Path,
+                "path must be an instance of %s", S3Path.class.getName());
+        final S3Path s3Path = (S3Path) dir;
+        final List<String> boundaries = S3PartitionedIterator.alphabetSplit(s3Path.getKey() + "/", partitions);
+        return new S3Scanner(s3Path, checkpointFile, boundaries).scan(visitor);
+    }
+
+    private DirectoryStream<Path> newPartitionedDirectoryStream(final S3Path s3Path, final List<String> boundaries) {
+        return new DirectoryStream<Path>() {
+            @Override
+            public void close() throws IOException {
+                // nothing to do here
+            }
+
+            @Override
+            public Iterator<Path> iterator() {
+                final S3FileSystem fs = s3Path.getFileSystem();
+                return new S3PartitionedIterator(fs, s3Path.getBucket(), s3Path.getKey() + "/", boundaries, fs.getListingOptions().getPartitionDepth());
             }
         };
     }
@@ -266,12 +463,16 @@ public class S3FileSystemProvider extends FileSystemProvider {
 
 		InputStream result;
 		try {
-			result = s3Path.getFileSystem().getClient()
-					.getObject(s3Path.getBucket(), s3Path.getKey())
-					.getObjectContent();
+			final S3Object object = s3Path.getFileSystem().getClient()
+					.getObject(s3Path.getBucket(), s3Path.getKey());
+			result = object.getObjectContent();
 
 			if (result == null)
 				throw new IOException(String.format("The specified path is a directory: %s", path));
+
+			// the GET response carries the complete object metadata, keep it for following lookups
+			if( object.getObjectMetadata() != null )
+				s3Path.getFileSystem().getMetadataCache().put(s3Path, new S3MetadataObjectSummary(s3Path.getBucket(), s3Path.getKey(), object.getObjectMetadata()));
 		}
 		catch (AmazonS3Exception e) {
 			if (e.getStatusCode() == 404)
@@ -292,9 +493,8 @@ public class S3FileSystemProvider extends FileSystemProvider {
 		if (options.length > 0) {
 			Set<OpenOption> opts = new LinkedHashSet<>(Arrays.asList(options));
 
-			// cannot handle APPEND here -> use newByteChannel() implementation
 			if (opts.contains(StandardOpenOption.APPEND)) {
-				return super.newOutputStream(path, options);
+				return updateOnClose(s3Path, createAppendOutputStream(s3Path, opts));
 			}
 
 			if (opts.contains(StandardOpenOption.READ)) {
@@ -326,20 +526,99 @@ public class S3FileSystemProvider extends FileSystemProvider {
 			}
 		}
 
-		return createUploaderOutputStream(s3Path);
+		return updateOnClose(s3Path, createUploaderOutputStream(s3Path));
+	}
+
+	/**
+	 * Wraps the specified stream to update the cached metadata of the path once the stream
+	 * is closed, since only at that point the uploaded object becomes visible
+	 */
+	private OutputStream updateOnClose( final S3Path s3Path, final S3OutputStream stream ) {
+		return new FilterOutputStream(stream) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					// do not invoke `super.close()` because the implicit flush would upload a (small) part
+					out.close();
+				}
+				finally {
+					s3Path.getFileSystem().modified(s3Path, stream.getUploadedSummary());
+				}
+			}
+		};
 	}
 
 	private S3OutputStream createUploaderOutputStream( S3Path fileToUpload ) {
 		AmazonS3Client s3 = fileToUpload.getFileSystem().getClient();
 
-		S3UploadRequest req = props != null ? new S3UploadRequest(props) : new S3UploadRequest();
-		req.setObjectId(fileToUpload.toS3ObjectId());
+		S3UploadRequest req = createUploadRequest(fileToUpload);
 
 		S3OutputStream stream = new S3OutputStream(s3.getClient(), req);
 		stream.setCannedAcl(s3.getCannedAcl());
 		return stream;
 	}
 
+	/**
+	 * Creates an output stream appending to the existing object content. When the existing object
+	 * is large enough to be a multipart upload part, its content is copied server-side and only the
+	 * appended data is uploaded, otherwise the (small) existing content is downloaded and re-uploaded
+	 * along with the new data.
+	 */
+	private S3OutputStream createAppendOutputStream( S3Path s3Path, Set<OpenOption> opts ) throws IOException {
+		if (opts.contains(StandardOpenOption.READ)) {
+			throw new IllegalArgumentException("READ + APPEND not allowed");
+		}
+		if (opts.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+			throw new IllegalArgumentException("APPEND + TRUNCATE_EXISTING not allowed");
+		}
+
+		final ObjectMetadata existing = getObjectMetadata(s3Path);
+		if( existing == null ) {
+			if( !opts.contains(StandardOpenOption.CREATE) && !opts.contains(StandardOpenOption.CREATE_NEW) ) {
+				throw new NoSuchFileException(s3Path.toString());
+			}
+			return createUploaderOutputStream(s3Path);
+		}
+		if( opts.contains(StandardOpenOption.CREATE_NEW) ) {
+			throw new FileAlreadyExistsException(s3Path.toString());
+		}
+
+		final AmazonS3Client s3 = s3Path.getFileSystem().getClient();
+		final S3UploadRequest req = createUploadRequest(s3Path);
+		if( req.getContentType() == null )
+			req.setContentType(existing.getContentType());
+		final S3OutputStream stream = new S3OutputStream(s3.getClient(), req);
+		stream.setCannedAcl(s3.getCannedAcl());
+
+		final long length = existing.getContentLength();
+		if( length >= S3MultipartOptions.MIN_PART_SIZE ) {
+			stream.setExistingContent(length, existing.getETag());
+		}
+		else if( length > 0 ) {
+			final GetObjectRequest request = new GetObjectRequest(s3Path.getBucket(), s3Path.getKey());
+			if( existing.getETag() != null )
+				request.withMatchingETagConstraint(existing.getETag());
+			final S3Object object = s3.getObject(request);
+			if( object == null )
+				throw new IOException(String.format("The S3 object %s has been modified while appending", s3Path));
+			try (InputStream content = object.getObjectContent()) {
+				stream.write(IOUtils.toByteArray(content));
+			}
+		}
+		return stream;
+	}
+
+	private S3UploadRequest createUploadRequest( S3Path fileToUpload ) {
+		S3UploadRequest req = props != null ? new S3UploadRequest(props) : new S3UploadRequest();
+		req.setObjectId(fileToUpload.toS3ObjectId());
+		return req;
+	}
+
 	protected boolean isAES256Enabled() {
 		String encryption = props.getProperty("storage_encryption");
 		if ( "AES256".equals(encryption) ) {
@@ -359,102 +638,124 @@ public class S3FileSystemProvider extends FileSystemProvider {
 				"path must be an instance of %s", S3Path.class.getName());
 		final S3Path s3Path = (S3Path) path;
 		// we resolve to a file inside the temp folder with the s3path name
-        final Path tempFile = createTempDir().resolve(path.getFileName().toString());
-
+		final Path tempFile = createTempDir().resolve(path.getFileName().toString());
 		try {
-			InputStream is = s3Path.getFileSystem().getClient()
-					.getObject(s3Path.getBucket(), s3Path.getKey())
-					.getObjectContent();
-
-			if (is == null)
-				throw new IOException(String.format("The specified path is a directory: %s", path));
+			return new S3ByteChannel(this, s3Path, options, tempFile, getChannelBlockSize());
+		}
+		catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempFile.getParent());
+			throw e;
+		}
+	}
 
-			Files.write(tempFile, IOUtils.toByteArray(is));
+	private int getChannelBlockSize() {
+		String value = props != null ? props.getProperty("channel_block_size") : null;
+		if( value == null )
+			return S3ByteChannel.DEFAULT_BLOCK_SIZE;
+		try {
+			return Integer.parseInt(value);
 		}
-		catch (AmazonS3Exception e) {
-			if (e.getStatusCode() != 404)
-				throw new IOException(String.format("Cannot access file: %s", path),e);
+		catch( NumberFormatException e ) {
+			log.warn("Not a valid S3 byte channel block size: `{}` -- Using default", value);
+			return S3ByteChannel.DEFAULT_BLOCK_SIZE;
 		}
+	}
 
-        // and we can use the File SeekableByteChannel implementation
-		final SeekableByteChannel seekable = Files .newByteChannel(tempFile, options);
+	/**
+	 * @param path The S3 path of the object
+	 * @return The {@link ObjectMetadata} of the object or {@code null} if it does not exist
+	 */
+	ObjectMetadata getObjectMetadata(S3Path path) {
+		return s3ObjectSummaryLookup.getS3ObjectMetadata(path);
+	}
 
-		return new SeekableByteChannel() {
-			@Override
-			public boolean isOpen() {
-				return seekable.isOpen();
-			}
+	void deleteObject(S3Path path) {
+		path.getFileSystem().getClient().deleteObject(path.getBucket(), path.getKey());
+		path.getFileSystem().deleted(path);
+	}
 
-			@Override
-			public void close() throws IOException {
+	/**
+	 * Upload the content of a local file to the specified S3 path. Files larger than the
+	 * upload chunk size are uploaded with a parallel multipart upload reading the parts
+	 * from the file channel, smaller ones with a single put request.
+	 *
+	 * @param target The S3 path where the content is stored
+	 * @param channel The channel of the local file to upload
+	 * @param length The number of bytes to upload
+	 * @param fileName The file name used to detect the content type
+	 * @throws IOException If the upload fails
+	 */
+	void uploadFile(S3Path target, FileChannel channel, long length, String fileName) throws IOException {
+		final S3UploadRequest req = createUploadRequest(target);
+		final AmazonS3Client client = target.getFileSystem().getClient();
 
-                if (!seekable.isOpen()) {
-                    return;
-                }
-				seekable.close();
-				// upload the content where the seekable ends (close)
-                if (Files.exists(tempFile)) {
-                    ObjectMetadata metadata = new ObjectMetadata();
-                    metadata.setContentLength(Files.size(tempFile));
-                    if( isAES256Enabled() )
-                    	metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
-                    // FIXME: #20 ServiceLoader cant load com.upplication.s3fs.util.FileTypeDetector when this library is used inside a ear :(
-					metadata.setContentType(Files.probeContentType(tempFile));
-
-                    try (InputStream stream = Files.newInputStream(tempFile)) {
-                        /*
-                         FIXME: if the stream is {@link InputStream#markSupported()} i can reuse the same stream
-                         and evict the close and open methods of probeContentType. By this way:
-                         metadata.setContentType(new Tika().detect(stream, tempFile.getFileName().toString()));
-                        */
-                        s3Path.getFileSystem()
-                                .getClient()
-                                .putObject(s3Path.getBucket(), s3Path.getKey(),
-                                        stream,
-                                        metadata);
-                    }
-                }
-                else {
-                    // delete: check option delete_on_close
-                    s3Path.getFileSystem().
-                        getClient().deleteObject(s3Path.getBucket(), s3Path.getKey());
-                }
-				// and delete the temp dir
-                Files.deleteIfExists(tempFile);
-                Files.deleteIfExists(tempFile.getParent());
-			}
+		final ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(length);
+		if( isAES256Enabled() )
+			metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
 
-			@Override
-			public int write(ByteBuffer src) throws IOException {
-				return seekable.write(src);
+		// the buffered stream allows to detect the content type on the
+		// leading bytes and then to upload the same stream
+		try (InputStream stream = new BufferedInputStream(new FileChannelInputStream(channel, 0, length))) {
+			String contentType = req.getContentType();
+			if( contentType == null )
+				contentType = FileTypeDetector.detect(stream, fileName);
+			metadata.setContentType(contentType);
+
+			if( length <= req.getChunkSize() ) {
+				final PutObjectResult result = client.putObject(target.getBucket(), target.getKey(), stream, metadata);
+				updateCache(target, metadata, req, length, result != null ? result.getETag() : null);
+				return;
 			}
+		}
 
-			@Override
-			public SeekableByteChannel truncate(long size) throws IOException {
-				return seekable.truncate(size);
-			}
+		final CompleteMultipartUploadResult result = client.multipartUploadFile(channel, length, target.toS3ObjectId(), metadata, req);
+		updateCache(target, metadata, req, length, result != null ? result.getETag() : null);
+	}
 
-			@Override
-			public long size() throws IOException {
-				return seekable.size();
-			}
+	/**
+	 * Update the object at the specified S3 path with a multipart upload composed by ranges
+	 * copied server-side from the existing object and ranges uploaded from a local file.
+	 *
+	 * @param target The S3 path of the object to update
+	 * @param channel The channel of the local file holding the uploaded ranges
+	 * @param parts The parts composing the object content
+	 * @param etag The ETag of the existing object
+	 * @param contentType The content type of the existing object
+	 * @throws IOException If the update fails, e.g. the object has been modified in the meanwhile
+	 */
+	void updateFile(S3Path target, FileChannel channel, List<S3UploadPart> parts, String etag, String contentType) throws IOException {
+		final S3UploadRequest req = createUploadRequest(target);
+		final ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentType(req.getContentType() != null ? req.getContentType() : contentType);
+		if( isAES256Enabled() )
+			metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
 
-			@Override
-			public int read(ByteBuffer dst) throws IOException {
-				return seekable.read(dst);
-			}
+		final CompleteMultipartUploadResult result = target.getFileSystem().getClient().multipartUpdateObject(channel, target.toS3ObjectId(), etag, parts, metadata, req);
+		long length = 0;
+		for( S3UploadPart part : parts )
+			length += part.getLength();
+		updateCache(target, metadata, req, length, result != null ? result.getETag() : null);
+	}
 
-			@Override
-			public SeekableByteChannel position(long newPosition)
-					throws IOException {
-				return seekable.position(newPosition);
-			}
+	/**
+	 * Cache the metadata of an object uploaded through this file system, the upload responses
+	 * report the new object ETag which along with the uploaded metadata and length is all
+	 * what a following lookup would fetch
+	 */
+	private void updateCache(S3Path target, ObjectMetadata metadata, S3UploadRequest req, long length, String etag) {
+		final ObjectMetadata meta = metadata.clone();
+		if( req.getStorageClass() != null )
+			meta.setHeader(Headers.STORAGE_CLASS, req.getStorageClass().toString());
+		target.getFileSystem().modified(target, S3MetadataObjectSummary.uploaded(target.getBucket(), target.getKey(), meta, length, etag));
+	}
 
-			@Override
-			public long position() throws IOException {
-				return seekable.position();
-			}
-		};
+	/**
+	 * @return The size of the parts used by multipart uploads
+	 */
+	int getUploadChunkSize() {
+		final S3MultipartOptions<?> opts = props != null ? new S3MultipartOptions<>(props) : new S3MultipartOptions<>();
+		return opts.getChunkSize();
 	}
 
 	/**
@@ -485,6 +786,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
 				.getClient()
 				.putObject(s3Path.getBucket(), keyName,
 						new ByteArrayInputStream(new byte[0]), metadata);
+		s3Path.getFileSystem().modified(s3Path, null);
 	}
 
 	@Override
@@ -511,6 +813,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
 			.deleteObject(s3Path.getBucket(), s3Path.getKey());
 		s3Path.getFileSystem().getClient()
 			.deleteObject(s3Path.getBucket(), s3Path.getKey() + "/");
+		s3Path.getFileSystem().deleted(s3Path);
 	}
 
 	@Override
@@ -550,6 +853,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
 		final S3MultipartOptions opts = props != null ? new S3MultipartOptions<>(props) : new S3MultipartOptions();
 		final int chunkSize = opts.getChunkSize();
 		final long length = sourceObjMetadata.getContentLength();
+		final S3ObjectSummary copied;
 
 		if( length <= chunkSize ) {
 
@@ -566,14 +870,34 @@ public class S3FileSystemProvider extends FileSystemProvider {
 				copyObjRequest.setNewObjectMetadata(targetObjectMetadata);
 			}
 
-			client.copyObject(copyObjRequest);
+			final CopyObjectResult result = client.copyObject(copyObjRequest);
+			copied = result != null ? copiedSummary(s3Target, copyObjRequest.getNewObjectMetadata() != null ? copyObjRequest.getNewObjectMetadata() : sourceObjMetadata, length, result.getETag(), result.getLastModifiedDate()) : null;
 		}
 		else {
-		 	client.multipartCopyObject(s3Source, s3Target, length, opts);
+			final CompleteMultipartUploadResult result = client.multipartCopyObject(s3Source, s3Target, length, opts);
+			copied = result != null ? copiedSummary(s3Target, new ObjectMetadata(), length, result.getETag(), null) : null;
 		}
+		s3Target.getFileSystem().modified(s3Target, copied);
 	}
 
 
+	/**
+	 * Create the summary of a copied object from the copy response. The target holds the source
+	 * content type and user metadata only when the copy does not replace the object metadata.
+	 * The multipart copy response does not report the last modified time, which is left unknown
+	 */
+	private S3ObjectSummary copiedSummary(S3Path target, ObjectMetadata metadata, long length, String etag, Date lastModified) {
+		if( etag == null )
+			return null;
+		final ObjectMetadata meta = new ObjectMetadata();
+		meta.setContentLength(length);
+		meta.setContentType(metadata.getContentType());
+		meta.setUserMetadata(metadata.getUserMetadata());
+		meta.setHeader(Headers.ETAG, etag);
+		meta.setLastModified(lastModified);
+		return new S3MetadataObjectSummary(target.getBucket(), target.getKey(), meta);
+	}
+
 	@Override
 	public void move(Path source, Path target, CopyOption... options)
 			throws IOException {
@@ -654,7 +978,16 @@ public class S3FileSystemProvider extends FileSystemProvider {
 	@Override
 	public <V extends FileAttributeView> V getFileAttributeView(Path path,
 			Class<V> type, LinkOption... options) {
-		throw new UnsupportedOperationException();
+		Preconditions.checkArgument(path instanceof S3Path,
+				"path must be an instance of %s", S3Path.class.getName());
+		if( type == BasicFileAttributeView.class ) {
+			return type.cast(new S3FileAttributeView(this, (S3Path) path, S3FileAttributeView.BASIC_NAME));
+		}
+		if( type == S3FileAttributeView.class ) {
+			return type.cast(new S3FileAttributeView(this, (S3Path) path));
+		}
+		// the view is not available
+		return null;
 	}
 
 	@Override
@@ -664,48 +997,41 @@ public class S3FileSystemProvider extends FileSystemProvider {
 				"path must be an instance of %s", S3Path.class.getName());
 		S3Path s3Path = (S3Path) path;
 
-		if (type == BasicFileAttributes.class) {
-
-			S3ObjectSummary objectSummary = s3ObjectSummaryLookup.lookup(s3Path);
-
-			// parse the data to BasicFileAttributes.
-			FileTime lastModifiedTime = null;
-			if( objectSummary.getLastModified() != null ) {
-				lastModifiedTime = FileTime.from(objectSummary.getLastModified().getTime(), TimeUnit.MILLISECONDS);
-			}
+		if (type == BasicFileAttributes.class || type == S3FileAttributes.class) {
 
-			long size =  objectSummary.getSize();
-			boolean directory = false;
-			boolean regularFile = false;
-			String key = objectSummary.getKey();
-            // check if is a directory and exists the key of this directory at amazon s3
-			if (objectSummary.getKey().equals(s3Path.getKey() + "/") && objectSummary.getKey().endsWith("/")) {
-				directory = true;
-			}
-			// is a directory but not exists at amazon s3
-			else if ((!objectSummary.getKey().equals(s3Path.getKey()) || "".equals(s3Path.getKey())) && objectSummary.getKey().startsWith(s3Path.getKey())){
-				directory = true;
-				// no metadata, we fake one
-				size = 0;
-                // delete extra part
-                key = s3Path.getKey() + "/";
-			}
-			// is a file:
-			else {
-                regularFile = true;
+			// use the attributes fetched by a directory listing when they are complete and still fresh
+			S3FileAttributes attributes = s3Path.getFileAttributes();
+			if( attributes != null && attributes.lastModifiedTime() != null && s3Path.getFileSystem().getMetadataCache().isFresh(s3Path, attributes.getTimestamp()) ) {
+				return type.cast(attributes);
 			}
 
-			return type.cast(new S3FileAttributes(key, lastModifiedTime, size, directory, regularFile));
+			S3ObjectSummary objectSummary = s3ObjectSummaryLookup.lookup(s3Path, true);
+			return type.cast(S3FileAttributes.create(s3Path.getKey(), objectSummary));
 		}
 
 		// not support attribute class
-		throw new UnsupportedOperationException(format("only %s supported", BasicFileAttributes.class));
+		throw new UnsupportedOperationException(format("only %s and %s supported", BasicFileAttributes.class, S3FileAttributes.class));
 	}
 
 	@Override
 	public Map<String, Object> readAttributes(Path path, String attributes,
 			LinkOption... options) throws IOException {
-		throw new UnsupportedOperationException();
+		Preconditions.checkArgument(path instanceof S3Path,
+				"path must be an instance of %s", S3Path.class.getName());
+
+		String view = "basic";
+		String names = attributes;
+		final int p = attributes.indexOf(':');
+		if( p != -1 ) {
+			view = attributes.substring(0, p);
+			names = attributes.substring(p + 1);
+		}
+		if( !"basic".equals(view) && !S3FileAttributeView.NAME.equals(view) ) {
+			throw new UnsupportedOperationException(format("file attribute view not supported: %s", view));
+		}
+
+		final S3FileAttributes attrs = readAttributes(path, S3FileAttributes.class, options);
+		return S3FileAttributeView.toMap(attrs, view, names);
 	}
 
 	@Override
@@ -714,6 +1040,82 @@ public class S3FileSystemProvider extends FileSystemProvider {
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * Min number of paths in the same directory for which {@link #fingerprints(Collection)}
+	 * lists the directory content instead of looking up each path
+	 */
+	static final int FINGERPRINT_LISTING_THRESHOLD = 8;
+
+	/**
+	 * Get a fingerprint identifying the content of a S3 object, without downloading it.
+	 * The fingerprint is composed by the object ETag, size and last modified time.
+	 *
+	 * @param path The path of a S3 object
+	 * @return The fingerprint string
+	 * @throws NoSuchFileException If the object does not exist
+	 * @throws IOException If the path is not a regular file
+	 */
+	public String fingerprint(Path path) throws IOException {
+		final S3FileAttributes attrs = readAttributes(path, S3FileAttributes.class);
+		return fingerprint(path, attrs);
+	}
+
+	/**
+	 * Get the fingerprints of many S3 objects. When many paths are in the same directory its
+	 * content is listed, so that the fingerprints are answered with one listing request
+	 * every 1000 objects, otherwise each path is looked up.
+	 *
+	 * @param paths The paths of the S3 objects
+	 * @return A map associating each path to its fingerprint, in the same order of the given paths
+	 * @throws NoSuchFileException If any object does not exist
+	 * @throws IOException If any path is not a regular file
+	 * @see #fingerprint(Path)
+	 */
+	public Map<Path,String> fingerprints(Collection<? extends Path> paths) throws IOException {
+		// group the paths by parent directory
+		final Map<S3Path,Set<S3Path>> groups = new LinkedHashMap<>();
+		for( Path it : paths ) {
+			Preconditions.checkArgument(it instanceof S3Path, "path must be an instance of %s", S3Path.class.getName());
+			final S3Path parent = (S3Path) it.getParent();
+			Set<S3Path> group = groups.get(parent);
+			if( group == null ) {
+				group = new HashSet<>();
+				groups.put(parent, group);
+			}
+			group.add((S3Path) it);
+		}
+
+		final Map<Path,String> listed = new HashMap<>();
+		for( Map.Entry<S3Path,Set<S3Path>> entry : groups.entrySet() ) {
+			final S3Path dir = entry.getKey();
+			final Set<S3Path> group = entry.getValue();
+			if( dir == null || group.size() < FINGERPRINT_LISTING_THRESHOLD )
+				continue;
+			final Iterator<Path> itr = new S3Iterator(dir.getFileSystem(), dir.getBucket(), dir.getKey() + "/");
+			while( itr.hasNext() ) {
+				final S3Path item = (S3Path) itr.next();
+				// the attributes of objects written by this file system may lack the last modified time
+				if( group.contains(item) && item.getFileAttributes().isRegularFile() && item.getFileAttributes().lastModifiedTime() != null )
+					listed.put(item, fingerprint(item, item.getFileAttributes()));
+			}
+		}
+
+		final Map<Path,String> result = new LinkedHashMap<>();
+		for( Path it : paths ) {
+			final String fingerprint = listed.get(it);
+			// not listed or not found in the listing, look it up to report the proper error
+			result.put(it, fingerprint != null ? fingerprint : fingerprint(it));
+		}
+		return result;
+	}
+
+	private static String fingerprint(Path path, S3FileAttributes attrs) throws IOException {
+		if( !attrs.isRegularFile() )
+			throw new IOException(format("Cannot fingerprint a path which is not a regular file: %s", path));
+		final long lastModified = attrs.lastModifiedTime() != null ? attrs.lastModifiedTime().toMillis() : 0;
+		return attrs.eTag() + '-' + attrs.size() + '-' + lastModified;
+	}
+
 	protected ClientConfiguration createClientConfig(Properties props) {
 		ClientConfiguration config = new ClientConfiguration();
 
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upplication.s3fs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AbortedException;
+import com.google.common.base.Preconditions;
+import com.upplication.s3fs.util.S3Globs;
+
+/**
+ * Lists the paths matching a glob pattern relative to a directory, e.g. {@code sample_*}{@code /reads_*.fq.gz}.
+ * <p>
+ * Instead of listing the whole directory tree and filtering the paths, the pattern is
+ * resolved segment by segment: literal segments are appended to the directory paths
+ * without any request, while the segments with wildcards are resolved by listing the
+ * directories matched so far with the literal prefix of the segment as listing prefix.
+ * The directories matched by a segment are listed concurrently. Only the subtrees
+ * which can contain matching paths are listed.
+ * <p>
+ * A segment containing {@code **} matches across the directory boundaries, therefore
+ * it's resolved with a listing of all the keys under the directories matched so far,
+ * and it matches files only.
+ * <p>
+ * A group containing a name separator, e.g. {@code {run42/sample_1,run43}}{@code /*.fq.gz},
+ * is expanded in a pattern for each alternative, which are resolved one after the other.
+ */
+public class S3GlobLister {
+
+    private final S3FileSystem fs;
+
+    public S3GlobLister(S3FileSystem fs) {
+        this.fs = fs;
+    }
+
+    /**
+     * @param dir The directory where the pattern is resolved
+     * @param glob The glob pattern, relative to the directory
+     * @return The paths matching the pattern
+     */
+    public List<Path> list(S3Path dir, String glob) {
+        final List<String> globs = S3Globs.expandGroups(glob);
+        if (globs.size() > 1) {
+            // the alternatives can match the same paths
+            final Set<Path> result = new LinkedHashSet<>();
+            for (String it : globs)
+                result.addAll(list(dir, it));
+            return new ArrayList<>(result);
+        }
+
+        final List<String> segments = S3Globs.segments(glob);
+        Preconditions.checkArgument(!segments.isEmpty(), "Not a valid glob pattern: %s", glob);
+
+        List<S3Path> dirs = new ArrayList<>();
+        dirs.add(dir);
+        for (int i = 0; i < segments.size(); i++) {
+            final String segment = segments.get(i);
+            final boolean last = i == segments.size() - 1;
+
+            if (segment.contains("**")) {
+                final String rest = join(segments.subList(i, segments.size()));
+                return expand(dirs, S3Globs.literalPrefix(segment), Pattern.compile(S3Globs.toRegex(rest)), true, true);
+            }
+
+            if (!last && !S3Globs.hasWildcards(segment)) {
+                final List<S3Path> next = new ArrayList<>(dirs.size());
+                for (S3Path it : dirs)
+                    next.add((S3Path) it.resolve(S3Globs.literalPrefix(segment)));
+                dirs = next;
+                continue;
+            }
+
+            final List<Path> matches = expand(dirs, S3Globs.literalPrefix(segment), Pattern.compile(S3Globs.toRegex(segment)), false, last);
+            if (last)
+                return matches;
+            dirs = new ArrayList<>(matches.size());
+            for (Path it : matches)
+                dirs.add((S3Path) it);
+        }
+        // not reached, the last segment always returns
+        return new ArrayList<>();
+    }
+
+    /**
+     * List the given directories concurrently
+     *
+     * @param dirs The directories to list
+     * @param namePrefix The listing prefix, relative to each directory
+     * @param pattern The pattern matching the entry names, or the relative keys when recursive
+     * @param recursive When {@code true} all the keys under the directories are listed
+     * @param includeFiles When {@code false} only the matching directories are returned
+     * @return The matching paths, in the order of the given directories
+     */
+    private List<Path> expand(List<S3Path> dirs, final String namePrefix, final Pattern pattern, final boolean recursive, final boolean includeFiles) {
+        if (dirs.size() == 1)
+            return listDir(dirs.get(0), namePrefix, pattern, recursive, includeFiles);
+
+        final List<Future<List<Path>>> futures = new ArrayList<>(dirs.size());
+        for (final S3Path dir : dirs) {
+            futures.add(S3Iterator.getOrCreateExecutor().submit(new Callable<List<Path>>() {
+                @Override
+                public List<Path> call() {
+                    return listDir(dir, namePrefix, pattern, recursive, includeFiles);
+                }
+            }));
+        }
+
+        final List<Path> result = new ArrayList<>();
+        try {
+            for (Future<List<Path>> future : futures)
+                result.addAll(future.get());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Glob listing interrupted", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            for (Future<List<Path>> future : futures)
+                future.cancel(true);
+        }
+        return result;
+    }
+
+    private List<Path> listDir(S3Path dir, String namePrefix, Pattern pattern, boolean recursive, boolean includeFiles) {
+        final String key = dir.getKey() + "/";
+        final int offset = key.length() == 1 ? 0 : key.length();
+        final S3Iterator it = new S3Iterator(fs, dir.getBucket(), key, null, null, fs.getListingOptions().getPrefetchDepth(), recursive);
+        it.setNamePrefix(namePrefix);
+
+        final List<Path> result = new ArrayList<>();
+        while (it.hasNext()) {
+            final S3Path entry = it.next();
+            final S3FileAttributes attrs = entry.getFileAttributes();
+            final boolean directory = attrs != null && attrs.isDirectory();
+            if (!includeFiles && !directory)
+                continue;
+            if (recursive && directory)
+                continue;
+            final String name = recursive ? entry.getKey().substring(offset) : entry.getFileName().toString();
+            if (pattern.matcher(name).matches())
+                result.add(entry);
+        }
+        return result;
+    }
+
+    private static String join(List<String> segments) {
+        final StringBuilder result = new StringBuilder();
+        final Iterator<String> it = segments.iterator();
+        while (it.hasNext()) {
+            result.append(it.next());
+            if (it.hasNext())
+                result.append('/');
+        }
+        return result.toString();
+    }
+}
@@ -45,16 +45,36 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-
-import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.model.ObjectListing;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.base.Preconditions;
 
 /**
  * S3 iterator over folders at first level.
- * Future verions of this class should be return the elements
- * in a incremental way when the #next() method is called.
+ * The elements are returned in a incremental way: a listing page is
+ * fetched only once the elements of the previous page have been consumed,
+ * therefore only the current page is held in memory and no further
+ * request is issued when the iteration is stopped early.
+ * <p>
+ * When the {@code listing_prefetch_depth} option is greater than zero, the
+ * following pages are requested in background while the current one is
+ * consumed, keeping at most that number of pages ready ahead of the consumer.
+ * <p>
+ * The iteration can be restricted to a range of keys, which is used
+ * by {@link S3PartitionedIterator} to list a directory concurrently.
+ * When recursive, the listing does not use the delimiter and returns all
+ * the objects under the directory, which is used by {@link S3WalkIterator}.
  */
 public class S3Iterator implements Iterator<Path> {
 
@@ -62,16 +82,125 @@ public class S3Iterator implements Iterator<Path> {
     private String bucket;
     private String key;
 
+    /**
+     * The key after which the listing starts (exclusive) or {@code null} to list from the beginning
+     */
+    private String startAfter;
+
+    /**
+     * The key at which the listing ends (inclusive) or {@code null} to list up to the end
+     */
+    private String endAt;
+
+    private boolean recursive;
+
+    /**
+     * The prefix of the names of the listed entries
+     */
+    private String namePrefix = "";
+
+    /**
+     * The filter of the names of the listed entries
+     */
+    private S3DirectoryFilter nameFilter;
+
+    private S3ListingSource source;
+
+    private ListObjectsV2Result current;
+
     private Iterator<S3Path> it;
 
+    private final int prefetchDepth;
+
+    /**
+     * The pages fetched in background, either a {@link ListObjectsV2Result} or the
+     * {@link RuntimeException} reported by the request
+     */
+    private final BlockingQueue<Object> pages = new LinkedBlockingQueue<>();
+
+    /**
+     * The last page fetched, the next page request continues from it
+     */
+    private ListObjectsV2Result last;
+
+    private boolean fetching;
+
     public S3Iterator(S3FileSystem s3FileSystem, String bucket, String key) {
+        this(s3FileSystem, bucket, key, null, null, s3FileSystem.getListingOptions().getPrefetchDepth());
+    }
+
+    /**
+     * Creates an iterator over the directory entries whose key is in the specified range
+     *
+     * @param s3FileSystem The file system
+     * @param bucket The bucket name
+     * @param key The directory key, ending with a slash
+     * @param startAfter The key after which the listing starts (exclusive) or {@code null}
+     * @param endAt The key at which the listing ends (inclusive) or {@code null}
+     * @param prefetchDepth The max number of pages fetched in background ahead of the consumer
+     */
+    public S3Iterator(S3FileSystem s3FileSystem, String bucket, String key, String startAfter, String endAt, int prefetchDepth) {
+        this(s3FileSystem, bucket, key, startAfter, endAt, prefetchDepth, false);
+    }
+
+    S3Iterator(S3FileSystem s3FileSystem, String bucket, String key, String startAfter, String endAt, int prefetchDepth, boolean recursive) {
 
         Preconditions.checkArgument(key != null && key.endsWith("/"), "key %s should be ended with slash '/'", key);
 
         this.bucket = bucket;
         // the only case i dont need the end slash is to list buckets content
         this.key = key.length() == 1 ? "" : key;
+        this.startAfter = startAfter;
+        this.endAt = endAt;
         this.s3FileSystem = s3FileSystem;
+        this.prefetchDepth = prefetchDepth;
+        this.recursive = recursive;
+    }
+
+    /**
+     * Creates the iterators over the key ranges of a directory split at the specified boundaries,
+     * i.e. the ranges {@code (null, b1], (b1, b2], ... (bn, null)}
+     *
+     * @param s3FileSystem The file system
+     * @param bucket The bucket name
+     * @param key The directory key, ending with a slash
+     * @param boundaries The sorted range boundaries
+     * @param prefetchDepth The max number of pages fetched by each range ahead of the consumer
+     * @return The iterators of the ranges, in order
+     */
+    static List<S3Iterator> ranges(S3FileSystem s3FileSystem, String bucket, String key, List<String> boundaries, int prefetchDepth) {
+        final List<S3Iterator> result = new ArrayList<>(boundaries.size() + 1);
+        String startAfter = null;
+        for (String boundary : boundaries) {
+            Preconditions.checkArgument(startAfter == null || boundary.compareTo(startAfter) > 0, "boundaries should be sorted and distinct: %s", boundaries);
+            result.add(new S3Iterator(s3FileSystem, bucket, key, startAfter, boundary, prefetchDepth));
+            startAfter = boundary;
+        }
+        result.add(new S3Iterator(s3FileSystem, bucket, key, startAfter, null, prefetchDepth));
+        return result;
+    }
+
+    /**
+     * Restrict the listing to the entries whose name starts with the specified prefix,
+     * it must be invoked before the iteration starts
+     *
+     * @param namePrefix The entry name prefix
+     */
+    void setNamePrefix(String namePrefix) {
+        Preconditions.checkState(it == null, "Listing already started");
+        this.namePrefix = namePrefix != null ? namePrefix : "";
+    }
+
+    /**
+     * Restrict the listing to the entries accepted by the specified filter: its name prefix
+     * is used as listing prefix and the entry names are matched before creating their paths.
+     * It must be invoked before the iteration starts
+     *
+     * @param filter The entry name filter
+     */
+    void setNameFilter(S3DirectoryFilter filter) {
+        setNamePrefix(filter.getNamePrefix());
+        this.nameFilter = filter;
     }
 
     @Override
@@ -91,55 +220,161 @@ public class S3Iterator implements Iterator<Path> {
 
     private Iterator<S3Path> getIterator() {
         if (it == null) {
-            List<S3Path> listPath = new ArrayList<>();
+            // all the pages of a listing come from the same source
+            source = s3FileSystem.getListingSource(bucket, key + namePrefix);
+            current = source.listObjectsV2(buildRequest());
+            it = parsePage(current);
+            if (prefetchDepth > 0)
+                prefetch();
+        }
+
+        // fetch the next page only when the current one has been consumed,
+        // skipping the (possibly) empty pages
+        while (!it.hasNext() && hasMore(current)) {
+            current = prefetchDepth > 0 ? takePage() : source.listNextBatchOfObjectsV2(current);
+            it = parsePage(current);
+        }
 
-            // iterator over this list
-            ObjectListing current = s3FileSystem.getClient().listObjects(buildRequest());
+        return it;
+    }
 
-            while (current.isTruncated()) {
-                // parse the elements
-                parseObjectListing(listPath, current);
-                // continue
-                current = s3FileSystem.getClient().listNextBatchOfObjects(current);
+    /**
+     * Take all the remaining entries of the current listing page, fetching the next page
+     * when the current one has been consumed
+     *
+     * @return The entries of the page or an empty list when the listing is complete
+     */
+    List<S3Path> nextPage() {
+        final List<S3Path> result = new ArrayList<>();
+        final Iterator<S3Path> page = getIterator();
+        while (page.hasNext())
+            result.add(page.next());
+        return result;
+    }
+
+    /**
+     * Request the page following the last fetched one in background, unless there's
+     * already a request in progress or enough pages are waiting to be consumed. The
+     * page requests are chained since each one needs the marker of the previous page.
+     */
+    private synchronized void prefetch() {
+        if (last == null)
+            last = current;
+        if (fetching || !hasMore(last) || pages.size() >= prefetchDepth)
+            return;
+
+        fetching = true;
+        final ListObjectsV2Result previous = last;
+        getOrCreateExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Object result;
+                try {
+                    result = source.listNextBatchOfObjectsV2(previous);
+                }
+                catch (RuntimeException e) {
+                    result = e;
+                }
+                synchronized (S3Iterator.this) {
+                    fetching = false;
+                    pages.add(result);
+                    if (result instanceof ListObjectsV2Result) {
+                        last = (ListObjectsV2Result) result;
+                        prefetch();
+                    }
+                }
             }
+        });
+    }
 
-            parseObjectListing(listPath, current);
+    private ListObjectsV2Result takePage() {
+        // make sure the next page has been requested
+        prefetch();
+        final Object result;
+        try {
+            result = pages.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Listing interrupted for bucket: " + bucket + "; prefix: " + key, e);
+        }
+        if (result instanceof RuntimeException)
+            throw (RuntimeException) result;
+        // a slot is available, keep requesting the following pages
+        prefetch();
+        return (ListObjectsV2Result) result;
+    }
 
-            it = listPath.iterator();
+    /**
+     * @return {@code true} when the listing continues with another page in the iterated range
+     */
+    private boolean hasMore(ListObjectsV2Result listing) {
+        if (!listing.isTruncated())
+            return false;
+        if (endAt == null)
+            return true;
+        final String lastKey = lastKey(listing);
+        return lastKey == null || lastKey.compareTo(endAt) < 0;
+    }
+
+    /**
+     * @return The greatest key or common prefix in the specified listing page
+     */
+    static String lastKey(ListObjectsV2Result listing) {
+        String result = null;
+        final List<S3ObjectSummary> summaries = listing.getObjectSummaries();
+        if (!summaries.isEmpty())
+            result = summaries.get(summaries.size() - 1).getKey();
+        final List<String> prefixes = listing.getCommonPrefixes();
+        if (!prefixes.isEmpty()) {
+            final String prefix = prefixes.get(prefixes.size() - 1);
+            if (result == null || prefix.compareTo(result) > 0)
+                result = prefix;
         }
+        return result;
+    }
 
-        return it;
+    private Iterator<S3Path> parsePage(ListObjectsV2Result listing) {
+        List<S3Path> listPath = new ArrayList<>();
+        parseListing(listPath, listing);
+        return listPath.iterator();
     }
 
-    private ListObjectsRequest buildRequest(){
+    private ListObjectsV2Request buildRequest(){
 
-        ListObjectsRequest request = new ListObjectsRequest();
-        request.setBucketName(bucket);
-        request.setPrefix(key);
-        request.setMarker(key);
-        request.setDelimiter("/");
+        ListObjectsV2Request request = s3FileSystem.getListingOptions().newRequest(bucket, key + namePrefix, recursive ? null : "/");
+        request.setStartAfter(startAfter != null ? startAfter : key);
         return request;
     }
 
     /**
      * add to the listPath the elements at the same level that s3Path
      * @param listPath List not null list to add
-     * @param current ObjectListing to walk
+     * @param current ListObjectsV2Result page to walk
      */
-    private void parseObjectListing(List<S3Path> listPath, ObjectListing current) {
+    private void parseListing(List<S3Path> listPath, ListObjectsV2Result current) {
 
         // add all the objects i.e. the files
         for (final S3ObjectSummary objectSummary : current.getObjectSummaries()) {
             final String key = objectSummary.getKey();
+            if (endAt != null && key.compareTo(endAt) > 0)
+                continue;
+            if (nameFilter != null && !nameFilter.acceptName(key.substring(this.key.length())))
+                continue;
             final S3Path path = new S3Path(s3FileSystem, "/" + bucket, key.split("/"));
             path.setObjectSummary(objectSummary);
+            path.setFileAttributes(S3FileAttributes.create(path.getKey(), objectSummary));
             listPath.add(path);
         }
 
         // add all the common prefixes i.e. the directories
         for(final String dir : current.getCommonPrefixes()) {
             if( dir.equals("/") ) continue;
-            listPath.add(new S3Path(s3FileSystem, "/" + bucket, dir));
+            if( endAt != null && dir.compareTo(endAt) > 0 ) continue;
+            if( nameFilter != null && !nameFilter.acceptName(dir.substring(this.key.length(), dir.length() - 1)) ) continue;
+            final S3Path path = new S3Path(s3FileSystem, "/" + bucket, dir);
+            path.setFileAttributes(S3FileAttributes.directory(dir));
+            listPath.add(path);
         }
 
     }
@@ -184,4 +419,32 @@ public class S3Iterator implements Iterator<Path> {
         }
         return keyChild;
     }
+
+    /** holds a singleton executor instance */
+    static private volatile ExecutorService executorSingleton;
+
+    /**
+     * The executor running the background page requests, its threads are daemons so
+     * that an abandoned listing does not prevent the application to terminate
+     */
+    static synchronized ExecutorService getOrCreateExecutor() {
+        if( executorSingleton == null ) {
+            final AtomicInteger count = new AtomicInteger();
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    0,
+                    Integer.MAX_VALUE,
+                    60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            final Thread thread = new Thread(r, "s3-listing-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executorSingleton = pool;
+        }
+        return executorSingleton;
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+
+/**
+ * The source of the directory listings, with the ListObjectsV2 semantic: the keys under
+ * the request prefix are returned in lexical order starting after the request start-after
+ * key, grouped by delimiter in common prefixes, in pages chained by continuation token.
+ * <p>
+ * It's either the S3 client itself, i.e. the live listing, or an index of the bucket
+ * content such as {@link com.upplication.s3fs.util.S3InventorySnapshot}.
+ *
+ * @see S3FileSystem#getListingSource(String, String)
+ */
+public interface S3ListingSource {
+
+    /**
+     * @param request The listing request
+     * @return The first listing page
+     */
+    ListObjectsV2Result listObjectsV2(ListObjectsV2Request request);
+
+    /**
+     * @param previous The previous listing page, it must be truncated
+     * @return The listing page following the specified one
+     */
+    ListObjectsV2Result listNextBatchOfObjectsV2(ListObjectsV2Result previous);
+}
@@ -37,19 +37,25 @@ import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3ObjectId;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.model.StorageClass;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.util.Base64;
 import com.upplication.s3fs.util.ByteBufferInputStream;
+import com.upplication.s3fs.util.S3MetadataObjectSummary;
+import com.upplication.s3fs.util.S3MultipartOptions;
 import com.upplication.s3fs.util.S3UploadRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -126,6 +132,12 @@ public final class S3OutputStream extends OutputStream {
      */
     private volatile boolean aborted;
 
+    /**
+     * The error raised by a background part copy, reported to the caller
+     * by the following {@link #write(int)} or {@link #close()} invocation
+     */
+    private volatile IOException failure;
+
     /**
      * If a multipart upload is in progress, holds the ID for it, {@code null} otherwise.
      */
@@ -173,6 +185,27 @@ public final class S3OutputStream extends OutputStream {
 
     private CannedAccessControlList cannedAcl;
 
+    /**
+     * When appending, the length of the existing object content which is
+     * copied server-side as the leading parts of the multipart upload
+     */
+    private long existingLength;
+
+    /**
+     * The ETag of the existing object to be copied
+     */
+    private String existingETag;
+
+    /**
+     * The number of bytes written into the stream
+     */
+    private long writtenLength;
+
+    /**
+     * The ETag of the uploaded object, available once the stream has been closed
+     */
+    private volatile String uploadedETag;
+
     /**
      * Creates a s3 uploader output stream
      * @param s3 The S3 client
@@ -194,7 +227,9 @@ public final class S3OutputStream extends OutputStream {
     public S3OutputStream(final AmazonS3 s3, S3UploadRequest request) {
         this.s3 = requireNonNull(s3);
         this.objectId = requireNonNull(request.getObjectId());
-        this.metadata = request.getMetadata() != null ? request.getMetadata() : new ObjectMetadata();
+        this.metadata = request.getMetadata() != null ? request.getMetadata().clone() : new ObjectMetadata();
+        if( request.getContentType() != null )
+            this.metadata.setContentType(request.getContentType());
         this.storageClass = request.getStorageClass();
         this.request = request;
         this.chunkSize = request.getChunkSize();
@@ -216,6 +251,24 @@ public final class S3OutputStream extends OutputStream {
         this.cannedAcl = acl;
     }
 
+    /**
+     * Append the written data to the existing content of the target object. The existing
+     * content is copied server-side with {@code UploadPartCopy} requests as the leading parts
+     * of a multipart upload, therefore only the appended data is transferred.
+     * <p>
+     * The existing content must be at least {@link com.upplication.s3fs.util.S3MultipartOptions#MIN_PART_SIZE}
+     * bytes long, because it cannot be the last part of the upload.
+     *
+     * @param length The length of the existing object content
+     * @param etag The ETag of the existing object, the upload fails if the object is modified in the meanwhile
+     */
+    public void setExistingContent(long length, String etag) {
+        if( length < S3MultipartOptions.MIN_PART_SIZE )
+            throw new IllegalArgumentException("Existing content is too small to be copied as a multipart upload part: " + length);
+        this.existingLength = length;
+        this.existingETag = etag;
+    }
+
     /**
      * @return A MD5 message digester
      */
@@ -238,6 +291,7 @@ public final class S3OutputStream extends OutputStream {
      */
     @Override
     public void write (int b) throws IOException {
+        checkFailure();
         if( buf == null ) {
             buf = allocate();
             md5 = createMd5();
@@ -257,6 +311,7 @@ public final class S3OutputStream extends OutputStream {
         buf.put((byte) b);
         // update the md5 checksum
         md5.update((byte) b);
+        writtenLength++;
     }
 
     /**
@@ -327,6 +382,98 @@ public final class S3OutputStream extends OutputStream {
         phaser = new Phaser();
         phaser.register();
         log.trace("Starting S3 upload: {}; chunk-size: {}; max-threads: {}", uploadId, request.getChunkSize(), request.getMaxThreads());
+
+        if( existingLength > 0 ) {
+            copyExistingContent();
+        }
+    }
+
+    /**
+     * Submits the copy of the existing object content as the first parts of the upload. The content
+     * is split in parts of the same size, so that none of them is smaller than the min part size
+     */
+    private void copyExistingContent() {
+        final long numOfParts = (existingLength + S3MultipartOptions.MAX_PART_SIZE - 1) / S3MultipartOptions.MAX_PART_SIZE;
+        final long partSize = (existingLength + numOfParts - 1) / numOfParts;
+        log.trace("Copying existing content of {} -- length: {}; parts: {}", objectId, existingLength, numOfParts);
+
+        long position = 0;
+        while( position < existingLength ) {
+            final long last = Math.min(position + partSize, existingLength) - 1;
+            final CopyPartRequest req = new CopyPartRequest()
+                    .withSourceBucketName(objectId.getBucket())
+                    .withSourceKey(objectId.getKey())
+                    .withDestinationBucketName(objectId.getBucket())
+                    .withDestinationKey(objectId.getKey())
+                    .withUploadId(uploadId)
+                    .withFirstByte(position)
+                    .withLastByte(last)
+                    .withPartNumber(++partsCount);
+            if( existingETag != null )
+                req.withMatchingETagConstraint(existingETag);
+
+            executor.submit( copyTask(req) );
+            position = last + 1;
+        }
+    }
+
+    private Runnable copyTask(final CopyPartRequest req) {
+
+        phaser.register();
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    copyPart(req);
+                }
+                catch (IOException e) {
+                    final StringWriter writer = new StringWriter();
+                    e.printStackTrace(new PrintWriter(writer));
+                    log.error("Upload: {} > Error for copy part: {}\nCaused by: {}", uploadId, req.getPartNumber(), writer.toString());
+                }
+                finally {
+                    phaser.arriveAndDeregister();
+                }
+            }
+        };
+    }
+
+    private void copyPart(final CopyPartRequest req) throws IOException {
+        int attempt=0;
+        boolean success=false;
+        try {
+            while( !success ) {
+                attempt++;
+                if( aborted ) return;
+                try {
+                    log.trace("Copying part {} range [{}-{}] attempt {} for {}", req.getPartNumber(), req.getFirstByte(), req.getLastByte(), attempt, objectId);
+                    final CopyPartResult result = s3.copyPart(req);
+                    if( result == null )
+                        throw new IOException("The S3 object has been modified while appending: " + objectId);
+                    partETags.add(new PartETag(result.getPartNumber(), result.getETag()));
+                    success=true;
+                }
+                catch (AmazonClientException e) {
+                    if( attempt == request.getMaxAttempts() )
+                        throw new IOException("Failed to copy multipart data to Amazon S3", e);
+
+                    log.debug("Failed to copy part {} attempt {} for {} -- Caused by: {}", req.getPartNumber(), attempt, objectId, e.getMessage());
+                    sleep(request.getRetrySleep());
+                }
+            }
+        }
+        catch (IOException e) {
+            // record the error before aborting, since that releases the closing thread
+            if( failure == null )
+                failure = e;
+            throw e;
+        }
+        finally {
+            if (!success) {
+                closed = true;
+                abortMultipartUpload();
+            }
+        }
     }
 
 
@@ -368,9 +515,19 @@ public final class S3OutputStream extends OutputStream {
     @Override
     public void close() throws IOException {
         if (closed) {
+            checkFailure();
             return;
         }
 
+        if (uploadId == null && existingLength > 0) {
+            if( buf == null ) {
+                // nothing has been appended, the object is left untouched
+                closed = true;
+                return;
+            }
+            init();
+        }
+
         if (uploadId == null) {
             if( buf != null )
                 putObject(buf, md5.digest());
@@ -385,6 +542,7 @@ public final class S3OutputStream extends OutputStream {
 
             // -- shutdown upload executor and await termination
             phaser.arriveAndAwaitAdvance();
+            checkFailure();
 
             // -- complete upload process
             completeMultipartUpload();
@@ -393,6 +551,17 @@ public final class S3OutputStream extends OutputStream {
         closed = true;
     }
 
+    /**
+     * Rethrows the error raised by a background part copy, if any
+     *
+     * @throws IOException
+     */
+    private void checkFailure() throws IOException {
+        final IOException e = failure;
+        if( e != null )
+            throw new IOException("Failed to append data to Amazon S3 object: " + objectId, e);
+    }
+
     /**
      * Starts the multipart upload process
      *
@@ -521,8 +690,8 @@ public final class S3OutputStream extends OutputStream {
         log.trace("Completing upload to {} consisting of {} parts", objectId, partCount);
 
         try {
-            s3.completeMultipartUpload(new CompleteMultipartUploadRequest( //
-                    objectId.getBucket(), objectId.getKey(), uploadId, new ArrayList<>(partETags)));
+            uploadedETag = s3.completeMultipartUpload(new CompleteMultipartUploadRequest( //
+                    objectId.getBucket(), objectId.getKey(), uploadId, new ArrayList<>(partETags))).getETag();
         } catch (final AmazonClientException e) {
             throw new IOException("Failed to complete Amazon S3 multipart upload", e);
         }
@@ -567,7 +736,7 @@ public final class S3OutputStream extends OutputStream {
         }
 
         try {
-            s3.putObject(request);
+            uploadedETag = s3.putObject(request).getETag();
         } catch (final AmazonClientException e) {
             throw new IOException("Failed to put data into Amazon S3 object", e);
         }
@@ -580,6 +749,19 @@ public final class S3OutputStream extends OutputStream {
         return partsCount;
     }
 
+    /**
+     * @return The summary of the uploaded object built from the upload response, or {@code null}
+     * if the stream has not been closed or the object has been left untouched
+     */
+    S3ObjectSummary getUploadedSummary() {
+        if( !closed || uploadedETag == null )
+            return null;
+        final ObjectMetadata meta = metadata.clone();
+        if( storageClass != null )
+            meta.setHeader(Headers.STORAGE_CLASS, storageClass.toString());
+        return S3MetadataObjectSummary.uploaded(objectId.getBucket(), objectId.getKey(), meta, existingLength + writtenLength, uploadedETag);
+    }
+
 
     /** holds a singleton executor instance */
     static private volatile ExecutorService executorSingleton;
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upplication.s3fs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the content of a directory, allowing a parallel stream to process
+ * the directory entries while the listing is still in progress.
+ * <p>
+ * The directory is listed by one or more key ranges, see {@link S3PartitionedIterator}.
+ * A split hands off the leading half of the ranges not yet consumed, or the remaining
+ * entries of the current listing page when a single range is left, while this spliterator
+ * continues with the following page (which is possibly already being fetched in background).
+ */
+public class S3PageSpliterator implements Spliterator<Path> {
+
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+
+    private final List<S3Iterator> ranges;
+
+    private int index;
+
+    /**
+     * Creates a spliterator listing the directory content by the specified key ranges
+     *
+     * @param s3FileSystem The file system
+     * @param bucket The bucket name
+     * @param key The directory key, ending with a slash
+     * @param boundaries The sorted keys splitting the directory in ranges, each range includes its upper boundary
+     * @param prefetchDepth The max number of pages fetched by each range ahead of the consumer
+     */
+    public S3PageSpliterator(S3FileSystem s3FileSystem, String bucket, String key, List<String> boundaries, int prefetchDepth) {
+        this.ranges = S3Iterator.ranges(s3FileSystem, bucket, key, boundaries, prefetchDepth);
+    }
+
+    private S3PageSpliterator(List<S3Iterator> ranges) {
+        this.ranges = ranges;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Path> action) {
+        while (index < ranges.size()) {
+            final S3Iterator range = ranges.get(index);
+            if (range.hasNext()) {
+                action.accept(range.next());
+                return true;
+            }
+            index++;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<Path> trySplit() {
+        final int remaining = ranges.size() - index;
+        if (remaining > 1) {
+            // hand off the leading half of the ranges
+            final int mid = index + remaining / 2;
+            final S3PageSpliterator result = new S3PageSpliterator(new ArrayList<>(ranges.subList(index, mid)));
+            index = mid;
+            return result;
+        }
+        if (remaining == 1) {
+            // hand off the current page
+            final List<S3Path> page = ranges.get(index).nextPage();
+            if (!page.isEmpty())
+                return Spliterators.spliterator(page.toArray(), CHARACTERISTICS);
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upplication.s3fs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AbortedException;
+import com.google.common.base.Preconditions;
+
+/**
+ * Iterator over the content of a directory listed concurrently by key ranges.
+ * <p>
+ * A listing request returns at most 1000 keys and each request needs the marker
+ * returned by the previous one, therefore listing a very large directory with a
+ * single {@link S3Iterator} is inherently sequential. This iterator splits the
+ * directory key space at the given boundaries, lists all the ranges concurrently
+ * and returns their entries range after range, i.e. in the same order of a plain
+ * listing. Each range buffers at most {@code prefetchDepth} pages ahead of the consumer.
+ * <p>
+ * The boundaries are either derived from a sample of the directory keys, see
+ * {@link #sampleSplit(String, List, int)}, or from the characters commonly used
+ * in the key names, see {@link #alphabetSplit(String, int)}.
+ */
+public class S3PartitionedIterator implements Iterator<Path> {
+
+    /**
+     * The characters recommended for the S3 object key names, in lexical order
+     */
+    static final String KEY_ALPHABET = "!'()*-.0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    private final List<S3Iterator> ranges;
+
+    private final List<Future<Boolean>> started = new ArrayList<>();
+
+    private int index;
+
+    /**
+     * Creates the iterator and starts the listing of all the ranges
+     *
+     * @param s3FileSystem The file system
+     * @param bucket The bucket name
+     * @param key The directory key, ending with a slash
+     * @param boundaries The sorted keys splitting the directory in ranges, each range includes its upper boundary
+     * @param prefetchDepth The max number of pages fetched by each range ahead of the consumer
+     */
+    public S3PartitionedIterator(S3FileSystem s3FileSystem, String bucket, String key, List<String> boundaries, int prefetchDepth) {
+        Preconditions.checkArgument(prefetchDepth > 0, "prefetch depth should be greater than zero: %s", prefetchDepth);
+
+        this.ranges = S3Iterator.ranges(s3FileSystem, bucket, key, boundaries, prefetchDepth);
+
+        // request the first page of all the ranges concurrently
+        for (final S3Iterator range : ranges) {
+            started.add(S3Iterator.getOrCreateExecutor().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return range.hasNext();
+                }
+            }));
+        }
+    }
+
+    /**
+     * @return The number of key ranges listed concurrently
+     */
+    public int getRangeCount() {
+        return ranges.size();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (index < ranges.size()) {
+            awaitStarted(index);
+            if (ranges.get(index).hasNext())
+                return true;
+            index++;
+        }
+        return false;
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return ranges.get(index).next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void awaitStarted(int i) {
+        final Future<Boolean> future = started.get(i);
+        if (future == null)
+            return;
+        try {
+            future.get();
+            started.set(i, null);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Partitioned listing interrupted", e);
+        }
+        catch (ExecutionException e) {
+            started.set(i, null);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Split the directory key space by the leading character of the entry names, spreading the
+     * boundaries evenly over the characters recommended for the S3 key names
+     *
+     * @param key The directory key, ending with a slash
+     * @param partitions The number of ranges
+     * @return The sorted range boundaries
+     */
+    public static List<String> alphabetSplit(String key, int partitions) {
+        Preconditions.checkArgument(partitions > 0, "partitions should be greater than zero: %s", partitions);
+        final String prefix = key.length() == 1 ? "" : key;
+        final TreeSet<String> result = new TreeSet<>();
+        final int count = Math.min(partitions, KEY_ALPHABET.length());
+        for (int i = 1; i < count; i++) {
+            result.add(prefix + KEY_ALPHABET.charAt(i * KEY_ALPHABET.length() / count));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Split the directory key space at evenly spaced keys of the given sample, e.g. the keys of a
+     * previous listing. The boundaries are truncated to the directory entry names, so that the
+     * content of a sub-directory is never split across two ranges
+     *
+     * @param key The directory key, ending with a slash
+     * @param sample The sorted sample of the directory keys
+     * @param partitions The number of ranges
+     * @return The sorted range boundaries
+     */
+    public static List<String> sampleSplit(String key, List<String> sample, int partitions) {
+        Preconditions.checkArgument(partitions > 0, "partitions should be greater than zero: %s", partitions);
+        final String prefix = key.length() == 1 ? "" : key;
+        final TreeSet<String> result = new TreeSet<>();
+        for (int i = 1; i < partitions && !sample.isEmpty(); i++) {
+            final String sampled = sample.get(i * sample.size() / partitions);
+            if (!sampled.startsWith(prefix) || sampled.length() == prefix.length())
+                continue;
+            final int p = sampled.indexOf('/', prefix.length());
+            if (p == prefix.length())
+                continue;
+            result.add(p == -1 ? sampled : sampled.substring(0, p));
+        }
+        return new ArrayList<>(result);
+    }
+}
@@ -86,6 +86,11 @@ public class S3Path implements Path {
 
 	private S3ObjectSummary objectSummary;
 
+	/**
+	 * The attributes of this path when it has been created by a directory listing
+	 */
+	private volatile S3FileAttributes fileAttributes;
+
 	/**
 	 * path must be a string of the form "/{bucket}", "/{bucket}/{key}" or just
 	 * "{key}".
@@ -537,6 +542,22 @@ public class S3Path implements Path {
 		this.objectSummary = objectSummary;
 	}
 
+	/**
+	 * The attributes of this path when it has been created while iterating a directory structure
+	 * by the {@link S3Iterator}. Unlike {@link #fetchObjectSummary()} the attributes are not reset
+	 * when accessed, the caller is expected to verify their staleness by using {@link S3FileAttributes#getTimestamp()}.
+	 *
+	 * @return The attributes fetched by the directory listing or {@code null} if any
+	 */
+	public S3FileAttributes getFileAttributes() {
+		return fileAttributes;
+	}
+
+	// note: package scope to limit the access to this setter
+	void setFileAttributes(S3FileAttributes fileAttributes) {
+		this.fileAttributes = fileAttributes;
+	}
+
 	// ~ helpers methods
 
 	private static Function<String, String> strip(final String ... strs) {
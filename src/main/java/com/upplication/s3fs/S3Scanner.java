@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.base.Preconditions;
+import com.upplication.s3fs.util.S3ScanCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scan of all the objects under a directory which can be resumed after a failure.
+ * <p>
+ * The keys are listed without delimiter, split in key ranges scanned concurrently, and each object
+ * is handed to a {@link Visitor}. The progress of each range, i.e. its boundaries and the last key
+ * visited, is periodically saved to a local checkpoint file, see {@link S3ScanCheckpoint}. When the
+ * checkpoint file exists the scan resumes from it: the ranges saved in the checkpoint are used in place
+ * of the given boundaries and each range is listed starting after its last visited key.
+ * <p>
+ * A key is recorded in the checkpoint only once the visitor returns, therefore the keys recorded
+ * are never visited again. The keys visited after the last save are visited again when the scan is
+ * resumed, the checkpoint interval bounds their number. The checkpoint is always saved when the scan
+ * terminates, either normally or because of a failure of the listing or of the visitor.
+ */
+public class S3Scanner {
+
+    private static final Logger log = LoggerFactory.getLogger(S3Scanner.class);
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * The action applied to each object found by the scan. When the scan has more than one
+     * range it is invoked concurrently by the listing threads
+     */
+    public interface Visitor {
+        void visit(S3Path path) throws IOException;
+    }
+
+    private final S3Path dir;
+
+    private final String key;
+
+    private final Path checkpointFile;
+
+    private final List<String> boundaries;
+
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    private S3ScanCheckpoint checkpoint;
+
+    private final AtomicLong visited = new AtomicLong();
+
+    private volatile boolean aborted;
+
+    /**
+     * Creates the scan of a directory
+     *
+     * @param dir The directory to scan
+     * @param checkpointFile The local file where the scan progress is saved
+     * @param boundaries The sorted keys splitting the scan in ranges, ignored when resuming from an existing checkpoint
+     */
+    public S3Scanner(S3Path dir, Path checkpointFile, List<String> boundaries) {
+        this.dir = dir;
+        this.key = dir.getKey().isEmpty() ? "/" : dir.getKey() + "/";
+        this.checkpointFile = checkpointFile;
+        this.boundaries = boundaries;
+    }
+
+    /**
+     * @param keys The number of keys visited between two checkpoint saves
+     */
+    public void setCheckpointInterval(int keys) {
+        Preconditions.checkArgument(keys > 0, "checkpoint interval should be greater than zero: %s", keys);
+        this.checkpointInterval = keys;
+    }
+
+    /**
+     * @return The checkpoint of the current scan or {@code null} if the scan has not started
+     */
+    public S3ScanCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Scan the directory, resuming from the checkpoint file when it exists. A scan which has
+     * failed can be resumed by invoking this method again
+     *
+     * @param visitor The action applied to each object
+     * @return The number of objects visited by this invocation
+     * @throws IOException If the visitor fails or the checkpoint cannot be read or saved
+     * @throws IllegalArgumentException If the checkpoint file belongs to the scan of another directory
+     */
+    public long scan(final Visitor visitor) throws IOException {
+        aborted = false;
+        visited.set(0);
+        checkpoint = loadOrCreate();
+        log.debug("Scanning s3://{}/{} - {}", dir.getBucket(), dir.getKey(), checkpoint);
+
+        final List<S3ScanCheckpoint.Range> ranges = checkpoint.getRanges();
+        final List<Future<Void>> futures = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            if (ranges.get(i).isDone())
+                continue;
+            final int index = i;
+            futures.add(S3Iterator.getOrCreateExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try {
+                        scanRange(index, visitor);
+                        return null;
+                    }
+                    catch (IOException | RuntimeException | Error e) {
+                        // stop the other ranges, the checkpoint keeps their progress
+                        aborted = true;
+                        throw e;
+                    }
+                }
+            }));
+        }
+
+        Throwable failure = null;
+        try {
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            aborted = true;
+            Thread.currentThread().interrupt();
+            saveCheckpoint();
+            throw new AbortedException("Scan interrupted for bucket: " + dir.getBucket() + "; prefix: " + key, e);
+        }
+
+        saveCheckpoint();
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        return visited.get();
+    }
+
+    private S3ScanCheckpoint loadOrCreate() throws IOException {
+        final String prefix = key.length() == 1 ? "" : key;
+        if (!Files.exists(checkpointFile))
+            return new S3ScanCheckpoint(dir.getBucket(), prefix, boundaries);
+
+        final S3ScanCheckpoint result = S3ScanCheckpoint.load(checkpointFile);
+        if (!result.getBucket().equals(dir.getBucket()) || !result.getPrefix().equals(prefix))
+            throw new IllegalArgumentException("Checkpoint " + checkpointFile + " does not belong to the scan of s3://" + dir.getBucket() + "/" + prefix);
+        return result;
+    }
+
+    private void scanRange(int index, Visitor visitor) throws IOException {
+        final S3ScanCheckpoint.Range range = checkpoint.getRanges().get(index);
+        final S3FileSystem fs = dir.getFileSystem();
+        final S3Iterator it = new S3Iterator(fs, dir.getBucket(), key, range.getResumeAfter(), range.getEndAt(), fs.getListingOptions().getPrefetchDepth(), true);
+        while (!aborted && it.hasNext()) {
+            final S3Path path = it.next();
+            // the listed key, unlike the path key, keeps the trailing slash of the directory placeholders
+            final S3ObjectSummary summary = path.fetchObjectSummary();
+            path.setObjectSummary(summary);
+            visitor.visit(path);
+            checkpoint.processed(index, summary.getKey());
+            if (visited.incrementAndGet() % checkpointInterval == 0)
+                saveCheckpoint();
+        }
+        if (!aborted)
+            checkpoint.done(index);
+    }
+
+    private synchronized void saveCheckpoint() throws IOException {
+        checkpoint.save(checkpointFile);
+    }
+}
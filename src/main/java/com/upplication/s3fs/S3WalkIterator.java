@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upplication.s3fs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Iterator over a directory tree in depth-first pre-order, as {@link java.nio.file.Files#walk(Path, int, java.nio.file.FileVisitOption...)}.
+ * <p>
+ * Unlike a walk issuing a delimited listing for each directory, the whole tree is fetched
+ * with a single paged listing of all the keys under the directory. Since the keys are
+ * returned in lexical order, the content of each directory is contiguous and the
+ * directories are synthesized from the key prefixes the first time they are met,
+ * right before their content. The start directory is returned first.
+ * <p>
+ * When the max depth is 1 the delimited listing of the directory is used instead,
+ * since it does not need to fetch the content of the sub-directories.
+ */
+public class S3WalkIterator implements Iterator<Path> {
+
+    private final S3Path start;
+
+    private final String prefix;
+
+    private final int maxDepth;
+
+    private final S3Iterator keys;
+
+    /**
+     * The entries ready to be returned
+     */
+    private final Deque<Path> pending = new ArrayDeque<>();
+
+    /**
+     * The names of the directories containing the last processed key, from the start directory down
+     */
+    private final List<String> open = new ArrayList<>();
+
+    private boolean started;
+
+    public S3WalkIterator(S3Path start, int maxDepth) {
+        Preconditions.checkArgument(maxDepth >= 0, "max depth should be a positive number: %s", maxDepth);
+        this.start = start;
+        this.prefix = start.getKey().isEmpty() ? "" : start.getKey() + "/";
+        this.maxDepth = maxDepth;
+        final S3FileSystem fs = start.getFileSystem();
+        this.keys = maxDepth > 0
+                ? new S3Iterator(fs, start.getBucket(), start.getKey() + "/", null, null, fs.getListingOptions().getPrefetchDepth(), maxDepth > 1)
+                : null;
+    }
+
+    /**
+     * @return {@code true} when the listing of the start directory returns any entry, i.e. the start path is a directory
+     */
+    public boolean hasEntries() {
+        return keys != null && keys.hasNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!started) {
+            started = true;
+            if (hasEntries() && !prefix.isEmpty()) {
+                // the first listed entry is the first object of the start directory
+                final S3Path first = keys.next();
+                final S3FileAttributes attrs = first.getFileAttributes();
+                pending.add(directory(prefix, attrs != null ? attrs.lastModifiedTime() : null));
+                process(first);
+            }
+            else {
+                pending.add(start);
+            }
+        }
+        while (pending.isEmpty() && keys != null && keys.hasNext()) {
+            process(keys.next());
+        }
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return pending.poll();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void process(S3Path entry) {
+        final String key = entry.getKey();
+        if (!key.startsWith(prefix) || key.length() == prefix.length())
+            return;
+
+        final String[] names = key.substring(prefix.length()).split("/");
+        final S3FileAttributes attrs = entry.getFileAttributes();
+        final boolean directory = attrs != null && attrs.isDirectory();
+        final int dirCount = directory ? names.length : names.length - 1;
+
+        // leave the directories not containing this entry
+        int common = 0;
+        while (common < open.size() && common < dirCount && open.get(common).equals(names[common]))
+            common++;
+        while (open.size() > common)
+            open.remove(open.size() - 1);
+
+        // enter the directories met for the first time
+        for (int i = common; i < dirCount; i++) {
+            open.add(names[i]);
+            if (i + 1 > maxDepth)
+                continue;
+            if (directory && i == names.length - 1) {
+                pending.add(entry);
+            }
+            else {
+                final StringBuilder dir = new StringBuilder(prefix);
+                for (int j = 0; j <= i; j++)
+                    dir.append(names[j]).append('/');
+                // the entry is the first object of the directory in key order
+                pending.add(directory(dir.toString(), attrs != null ? attrs.lastModifiedTime() : null));
+            }
+        }
+
+        if (!directory && names.length <= maxDepth)
+            pending.add(entry);
+    }
+
+    private S3Path directory(String dirKey, FileTime lastModifiedTime) {
+        final S3Path path = new S3Path(start.getFileSystem(), "/" + start.getBucket(), dirKey);
+        path.setFileAttributes(S3FileAttributes.directory(dirKey, lastModifiedTime));
+        return path;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@code InputStream} adaptor which reads a region of a {@link FileChannel}
+ * using positional reads. Since the channel position is never modified, many
+ * streams can read concurrently different regions of the same channel.
+ * <p>
+ * The stream supports {@link #mark(int)} so that the upload of a region can be retried.
+ */
+public class FileChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private final long end;
+
+    private long position;
+
+    private long mark;
+
+    /**
+     * @param channel The file channel to read
+     * @param offset The position of the first byte to read
+     * @param length The number of bytes of the region to read
+     */
+    public FileChannelInputStream(FileChannel channel, long offset, long length) {
+        this.channel = channel;
+        this.position = offset;
+        this.mark = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if( len == 0 )
+            return 0;
+        if( position >= end )
+            return -1;
+
+        final ByteBuffer buf = ByteBuffer.wrap(bytes, off, (int) Math.min(len, end - position));
+        final int n = channel.read(buf, position);
+        if( n == -1 )
+            return -1;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        final long result = Math.max(0, Math.min(n, end - position));
+        position += result;
+        return result;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = mark;
+    }
+
+    /**
+     * The underlying channel is shared, therefore it's not closed by this stream
+     */
+    @Override
+    public void close() {
+    }
+}
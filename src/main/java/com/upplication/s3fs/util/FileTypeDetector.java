@@ -45,28 +45,130 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.tika.Tika;
+import org.apache.tika.mime.MediaType;
 
 /**
  * FileTypeDetector extension.
  * Use tika for better mime type detection
  * and operating System agnostic.
+ *
+ * The content type is resolved by the file name extension first, using
+ * a cache shared by all instances, and only when the extension is not
+ * conclusive Tika is run against the leading bytes of the content.
+ * Since Tika matches multi-part extensions e.g. {@code *.tar.gz}, the
+ * cache is keyed by the last two extensions of the name when it has them.
  */
 public class FileTypeDetector extends java.nio.file.spi.FileTypeDetector {
+
+    /**
+     * Marks the extensions for which the name alone is not enough to detect the content type
+     */
+    private static final String UNKNOWN = "";
+
+    /**
+     * Max number of extensions cached, the names with many distinct multi-part extensions
+     * e.g. {@code data.20200101.gz} are detected without caching once it's reached
+     */
+    private static final int MAX_CACHED_EXTENSIONS = 1000;
+
+    /**
+     * Maps a (lower-case) file extension to the detected content type
+     */
+    private static final ConcurrentMap<String,String> extensionCache = new ConcurrentHashMap<>();
+
+    /**
+     * Lazy holder for the shared Tika instance, loading the mime types
+     * repository is expensive and it's done only on first use
+     */
+    private static class SharedTika {
+        static final Tika INSTANCE = new Tika();
+    }
+
     private Tika tika;
 
     public FileTypeDetector(Tika tika) {
         this.tika = tika;
     }
     public FileTypeDetector(){
-        this.tika = new Tika();
+        this.tika = SharedTika.INSTANCE;
     }
 
     @Override
     public String probeContentType(Path path) throws IOException {
+        final String fileName = path.getFileName().toString();
+        final String result = detectByExtension(tika, fileName);
+        if( result != null )
+            return result;
+
         try(InputStream stream = Files.newInputStream(path)){
-            return tika.detect(stream, path.getFileName().toString());
+            return tika.detect(stream, fileName);
+        }
+    }
+
+    /**
+     * Detect the content type of a file name using the extension only.
+     *
+     * @param fileName The file name
+     * @return The content type or {@code null} when it cannot be inferred from the file extension
+     */
+    public static String detect(String fileName) {
+        return detectByExtension(SharedTika.INSTANCE, fileName);
+    }
+
+    /**
+     * Detect the content type of the data read by the specified stream. The file extension
+     * is checked first, when it's not conclusive Tika inspects the leading bytes of the stream.
+     * <p>
+     * The stream must support {@link InputStream#mark(int)}, it's reset to its original
+     * position after the detection, so that it can be used to upload the content.
+     *
+     * @param stream The data stream e.g. a {@link java.io.BufferedInputStream}
+     * @param fileName The file name
+     * @return The detected content type
+     * @throws IOException When the stream cannot be read
+     */
+    public static String detect(InputStream stream, String fileName) throws IOException {
+        if( !stream.markSupported() )
+            throw new IllegalArgumentException("Content type detection requires a stream supporting mark/reset");
+
+        final String result = detectByExtension(SharedTika.INSTANCE, fileName);
+        return result != null ? result : SharedTika.INSTANCE.detect(stream, fileName);
+    }
+
+    private static String detectByExtension(Tika tika, String fileName) {
+        final String ext = getExtension(fileName);
+        if( ext == null )
+            return null;
+
+        String result = extensionCache.get(ext);
+        if( result == null ) {
+            result = tika.detect(fileName);
+            if( result == null || MediaType.OCTET_STREAM.toString().equals(result) )
+                result = UNKNOWN;
+            if( extensionCache.size() < MAX_CACHED_EXTENSIONS )
+                extensionCache.putIfAbsent(ext, result);
         }
+
+        return !result.isEmpty() ? result : null;
+    }
+
+    /**
+     * @return The last two extensions of the file name e.g. {@code tar.gz}, or the last one
+     * when the name has a single extension, or {@code null} when it has none
+     */
+    private static String getExtension(String fileName) {
+        if( fileName == null )
+            return null;
+        final int p = fileName.lastIndexOf('.');
+        if( p <= 0 || p == fileName.length()-1 )
+            return null;
+        final int q = fileName.lastIndexOf('.', p-1);
+        final int start = q > 0 && q < p-1 ? q : p;
+        return fileName.substring(start+1).toLowerCase(Locale.ROOT);
     }
 }
@@ -44,6 +44,10 @@ package com.upplication.s3fs.util;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Utilities for streams
@@ -69,4 +73,20 @@ public abstract class IOUtils {
 
         return buffer.toByteArray();
     }
+
+    /**
+     * Replace a file with another one, atomically when supported by the file system,
+     * so that the target file is never found partially written
+     * @param source Path the file replacing the target
+     * @param target Path the replaced file
+     * @throws IOException if the file cannot be moved
+     */
+    public static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 }
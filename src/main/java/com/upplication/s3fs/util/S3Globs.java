@@ -0,0 +1,264 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upplication.s3fs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Helper methods to handle the glob patterns, with the syntax described by
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+ */
+public class S3Globs {
+
+    private static final String REGEX_META_CHARS = ".^$+{[]|()";
+
+    private static final String GLOB_META_CHARS = "\\*?[{";
+
+    private S3Globs() {}
+
+    /**
+     * Convert a glob pattern to the equivalent regular expression
+     *
+     * @param glob The glob pattern
+     * @return The regular expression
+     * @throws PatternSyntaxException If the glob pattern is not valid
+     */
+    public static String toRegex(String glob) {
+        final StringBuilder result = new StringBuilder("^");
+        boolean inGroup = false;
+        int i = 0;
+        while (i < glob.length()) {
+            final char c = glob.charAt(i++);
+            switch (c) {
+                case '\\':
+                    if (i == glob.length())
+                        throw new PatternSyntaxException("No character to escape", glob, i - 1);
+                    appendLiteral(result, glob.charAt(i++));
+                    break;
+                case '*':
+                    if (i < glob.length() && glob.charAt(i) == '*') {
+                        // crosses the directory boundaries
+                        result.append(".*");
+                        i++;
+                    }
+                    else {
+                        result.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    result.append("[^/]");
+                    break;
+                case '[':
+                    i = appendBracket(result, glob, i);
+                    break;
+                case '{':
+                    if (inGroup)
+                        throw new PatternSyntaxException("Cannot nest groups", glob, i - 1);
+                    result.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        result.append("))");
+                        inGroup = false;
+                    }
+                    else {
+                        result.append('}');
+                    }
+                    break;
+                case ',':
+                    result.append(inGroup ? ")|(?:" : ",");
+                    break;
+                default:
+                    appendLiteral(result, c);
+            }
+        }
+        if (inGroup)
+            throw new PatternSyntaxException("Missing '}'", glob, glob.length() - 1);
+        return result.append('$').toString();
+    }
+
+    private static int appendBracket(StringBuilder result, String glob, int i) {
+        result.append("[[^/]&&[");
+        if (i < glob.length() && glob.charAt(i) == '!') {
+            result.append('^');
+            i++;
+        }
+        else if (i < glob.length() && glob.charAt(i) == '^') {
+            result.append("\\^");
+            i++;
+        }
+        boolean first = true;
+        while (i < glob.length()) {
+            final char c = glob.charAt(i++);
+            if (c == ']' && !first) {
+                result.append("]]");
+                return i;
+            }
+            if (c == '/')
+                throw new PatternSyntaxException("Explicit 'name separator' in class", glob, i - 1);
+            if (c == '\\' || c == '[' || (c == '&' && i < glob.length() && glob.charAt(i) == '&'))
+                result.append('\\');
+            result.append(c);
+            first = false;
+        }
+        throw new PatternSyntaxException("Missing ']'", glob, glob.length() - 1);
+    }
+
+    private static void appendLiteral(StringBuilder result, char c) {
+        if (REGEX_META_CHARS.indexOf(c) != -1 || c == '\\' || c == '*' || c == '?' || c == '}')
+            result.append('\\');
+        result.append(c);
+    }
+
+    /**
+     * @param glob A glob pattern
+     * @return {@code true} when the pattern contains any wildcard, i.e. it does not match only itself
+     */
+    public static boolean hasWildcards(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if (GLOB_META_CHARS.indexOf(glob.charAt(i)) != -1)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param glob A glob pattern
+     * @return The longest literal prefix of the pattern, i.e. the prefix shared by all the matching names
+     */
+    public static String literalPrefix(String glob) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                result.append(glob.charAt(++i));
+                continue;
+            }
+            if (GLOB_META_CHARS.indexOf(c) != -1)
+                break;
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Expand the groups containing a name separator into as many patterns as their alternatives,
+     * e.g. {@code {a/b,c}/*.txt} into {@code a/b/*.txt} and {@code c/*.txt}, so that the resulting
+     * patterns can be split in segments. The other groups are left as they are.
+     *
+     * @param glob A glob pattern
+     * @return The expanded patterns, or the pattern itself when it has no group containing a separator
+     */
+    public static List<String> expandGroups(String glob) {
+        final List<String> result = new ArrayList<>();
+        expandGroups(glob, result);
+        return result;
+    }
+
+    private static void expandGroups(String glob, List<String> result) {
+        final List<Integer> commas = new ArrayList<>();
+        int start = -1;
+        boolean separator = false;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                i = skipBracket(glob, i + 1);
+            }
+            else if (c == '{' && start == -1) {
+                start = i;
+                separator = false;
+                commas.clear();
+            }
+            else if (c == ',' && start != -1) {
+                commas.add(i);
+            }
+            else if (c == '/' && start != -1) {
+                separator = true;
+            }
+            else if (c == '}' && start != -1) {
+                if (separator) {
+                    final String prefix = glob.substring(0, start);
+                    final String suffix = glob.substring(i + 1);
+                    commas.add(i);
+                    int from = start + 1;
+                    for (int p : commas) {
+                        expandGroups(prefix + glob.substring(from, p) + suffix, result);
+                        from = p + 1;
+                    }
+                    return;
+                }
+                start = -1;
+            }
+        }
+        result.add(glob);
+    }
+
+    /**
+     * @return The index of the closing bracket of the expression starting at the specified index
+     */
+    private static int skipBracket(String glob, int i) {
+        if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^'))
+            i++;
+        // a leading closing bracket is part of the expression
+        if (i < glob.length() && glob.charAt(i) == ']')
+            i++;
+        while (i < glob.length() && glob.charAt(i) != ']')
+            i++;
+        return i;
+    }
+
+    /**
+     * Split a glob pattern in the path name segments, ignoring the slashes in groups and bracket expressions.
+     * The groups containing a slash need to be expanded with {@link #expandGroups(String)} first
+     *
+     * @param glob A glob pattern
+     * @return The list of segments
+     */
+    public static List<String> segments(String glob) {
+        final List<String> result = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+        int nesting = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                current.append(c).append(glob.charAt(++i));
+                continue;
+            }
+            if (c == '{' || c == '[')
+                nesting++;
+            else if ((c == '}' || c == ']') && nesting > 0)
+                nesting--;
+            if (c == '/' && nesting == 0) {
+                if (current.length() > 0)
+                    result.add(current.toString());
+                current.setLength(0);
+            }
+            else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0)
+            result.add(current.toString());
+        return result;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.upplication.s3fs.AmazonS3Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the S3 Inventory snapshot used as listing source of a bucket, when configured.
+ * <p>
+ * The following properties are used to configure it:
+ * <ul>
+ *     <li>{@code inventory_manifest}: the location of the inventory, either the {@code manifest.json}
+ *     file of a report e.g. {@code s3://inventory-bucket/prefix/source-bucket/config-id/2020-01-01T00-00Z/manifest.json},
+ *     or the inventory configuration folder e.g. {@code s3://inventory-bucket/prefix/source-bucket/config-id/}
+ *     in which case the latest report is used (default none i.e. the inventory is not used)</li>
+ *     <li>{@code inventory_max_age}: the age (milliseconds) after which a report is stale,
+ *     {@code 0} for no limit (default 2 days)</li>
+ *     <li>{@code inventory_stale_policy}: what to do when the report is stale, either {@code live}
+ *     to use the live listing requests, {@code use} to keep using the stale report or {@code fail}
+ *     to fail the listing (default {@code live})</li>
+ *     <li>{@code inventory_refresh_interval}: the min interval (milliseconds) between two attempts
+ *     to load a newer report, when the current one is stale or cannot be loaded (default 15 minutes)</li>
+ *     <li>{@code inventory_prefixes}: the comma separated list of the key prefixes loaded from the report
+ *     e.g. {@code inputs/,reference/}, the other keys are listed with the live requests. It bounds the
+ *     memory used by the report, see {@link S3InventorySnapshot} (default none i.e. all the keys are loaded)</li>
+ * </ul>
+ * The report is loaded the first time it's needed, the listings and the attributes answered from
+ * it reflect the bucket content when the report has been taken. The changes made through the file
+ * system are not applied to the report, instead the modified keys are recorded and the live requests
+ * are used to look up them and to list the prefixes containing them.
+ */
+public class S3Inventory {
+
+    private static final Logger log = LoggerFactory.getLogger(S3Inventory.class);
+
+    public static final long DEFAULT_MAX_AGE = 2 * 24 * 60 * 60 * 1000L;
+
+    public static final long DEFAULT_REFRESH_INTERVAL = 15 * 60 * 1000L;
+
+    /**
+     * The name of the report folders e.g. {@code 2020-01-01T00-00Z/}
+     */
+    private static final Pattern REPORT_FOLDER = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}-\\d{2}Z/");
+
+    public enum StalePolicy { LIVE, USE, FAIL }
+
+    private final AmazonS3Client client;
+
+    private String bucket;
+
+    private String key;
+
+    private long maxAge = DEFAULT_MAX_AGE;
+
+    private StalePolicy stalePolicy = StalePolicy.LIVE;
+
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    private final List<String> prefixes = new ArrayList<>();
+
+    private volatile S3InventorySnapshot snapshot;
+
+    private long lastAttempt;
+
+    private boolean staleReported;
+
+    /**
+     * The keys modified through the file system by bucket
+     */
+    private final ConcurrentMap<String,NavigableSet<String>> modified = new ConcurrentHashMap<>();
+
+    public S3Inventory(Properties props, AmazonS3Client client) {
+        this.client = client;
+        final String location = props != null ? props.getProperty("inventory_manifest") : null;
+        if( location == null || location.isEmpty() )
+            return;
+        if( !location.startsWith("s3://") || location.indexOf('/', 5) == -1 ) {
+            log.warn("Not a valid S3 inventory location: `{}` -- It should be `s3://bucket/key`", location);
+            return;
+        }
+        final int p = location.indexOf('/', 5);
+        this.bucket = location.substring(5, p);
+        this.key = location.substring(p + 1);
+        maxAge = parseLong(props.getProperty("inventory_max_age"), "max age", maxAge);
+        refreshInterval = parseLong(props.getProperty("inventory_refresh_interval"), "refresh interval", refreshInterval);
+        final String keys = props.getProperty("inventory_prefixes");
+        if( keys != null ) {
+            for( String prefix : keys.split(",") ) {
+                prefix = prefix.trim();
+                if( prefix.startsWith("/") )
+                    prefix = prefix.substring(1);
+                if( prefix.isEmpty() )
+                    continue;
+                prefixes.add(prefix.endsWith("/") ? prefix : prefix + "/");
+            }
+        }
+        final String policy = props.getProperty("inventory_stale_policy");
+        if( policy != null ) {
+            try {
+                stalePolicy = StalePolicy.valueOf(policy.toUpperCase());
+            }
+            catch( IllegalArgumentException e ) {
+                log.warn("Not a valid S3 inventory stale policy: `{}` -- Using default", policy);
+            }
+        }
+        log.debug("S3 inventory -- location: {}; maxAge: {}ms; stalePolicy: {}; prefixes: {}", location, maxAge, stalePolicy, prefixes);
+    }
+
+    private static long parseLong(String value, String name, long defValue) {
+        if( value == null )
+            return defValue;
+        try {
+            return Long.parseLong(value);
+        }
+        catch( NumberFormatException e ) {
+            log.warn("Not a valid S3 inventory {}: `{}` -- Using default", name, value);
+            return defValue;
+        }
+    }
+
+    public boolean isEnabled() {
+        return bucket != null;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public StalePolicy getStalePolicy() {
+        return stalePolicy;
+    }
+
+    /**
+     * @return The key prefixes loaded from the report or an empty list when all the keys are loaded
+     */
+    public List<String> getPrefixes() {
+        return Collections.unmodifiableList(prefixes);
+    }
+
+    /**
+     * Get the inventory snapshot to be used as listing source for the specified bucket
+     *
+     * @param bucket The bucket name
+     * @return The inventory snapshot or {@code null} when the bucket content has to be listed with the live requests,
+     * i.e. there's no inventory for the bucket, it cannot be loaded or it's stale and the stale policy is {@code live}
+     * @throws IllegalStateException When the inventory of the bucket is stale and the stale policy is {@code fail}
+     */
+    public S3InventorySnapshot getSnapshot(String bucket) {
+        if( !isEnabled() )
+            return null;
+        final S3InventorySnapshot result = current();
+        if( result == null || !result.getBucket().equals(bucket) )
+            return null;
+        if( !isStale(result) )
+            return result;
+
+        switch( stalePolicy ) {
+            case USE:
+                reportStale(result);
+                return result;
+            case FAIL:
+                throw new IllegalStateException("S3 inventory of bucket " + bucket + " is stale -- Created: " + new Date(result.getCreationTime()) + "; manifest: " + result.getManifest());
+            default:
+                reportStale(result);
+                return null;
+        }
+    }
+
+    /**
+     * Get the inventory snapshot to be used to look up the specified key or to list the specified prefix
+     *
+     * @param bucket The bucket name
+     * @param key The looked up key or the listed prefix
+     * @return The inventory snapshot or {@code null} when the live requests have to be used, as for {@link #getSnapshot(String)},
+     * when the key is not under the loaded prefixes, or when the key or any key starting with it has been modified
+     * through the file system
+     * @throws IllegalStateException When the inventory of the bucket is stale and the stale policy is {@code fail}
+     */
+    public S3InventorySnapshot getSnapshot(String bucket, String key) {
+        if( !isEnabled() || !isLoaded(key) || isModified(bucket, key) )
+            return null;
+        return getSnapshot(bucket);
+    }
+
+    /**
+     * @return {@code true} when the key, or the directory with this name, is under the loaded prefixes
+     */
+    private boolean isLoaded(String key) {
+        if( prefixes.isEmpty() )
+            return true;
+        for( String prefix : prefixes ) {
+            if( (key + "/").startsWith(prefix) )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record that an object has been modified through the file system
+     *
+     * @param bucket The bucket name
+     * @param key The object key
+     */
+    public void modified(String bucket, String key) {
+        if( !isEnabled() )
+            return;
+        NavigableSet<String> keys = modified.get(bucket);
+        if( keys == null ) {
+            final NavigableSet<String> created = new ConcurrentSkipListSet<>();
+            keys = modified.putIfAbsent(bucket, created);
+            if( keys == null )
+                keys = created;
+        }
+        keys.add(key);
+    }
+
+    /**
+     * @return {@code true} when the key or any key starting with it, e.g. the objects in a directory
+     * or matching a listing prefix, has been modified through the file system
+     */
+    private boolean isModified(String bucket, String key) {
+        final NavigableSet<String> keys = modified.get(bucket);
+        if( keys == null )
+            return false;
+        final String first = keys.ceiling(key);
+        return first != null && first.startsWith(key);
+    }
+
+    private boolean isStale(S3InventorySnapshot snapshot) {
+        return maxAge > 0 && System.currentTimeMillis() - snapshot.getCreationTime() > maxAge;
+    }
+
+    private synchronized void reportStale(S3InventorySnapshot snapshot) {
+        if( staleReported )
+            return;
+        staleReported = true;
+        log.warn("S3 inventory of bucket {} is stale -- {}", snapshot.getBucket(), stalePolicy == StalePolicy.USE ? "Using it anyway" : "Using live listing");
+    }
+
+    /**
+     * @return The current snapshot, loading the report the first time and a newer report when it's stale
+     */
+    private synchronized S3InventorySnapshot current() {
+        if( snapshot != null && !isStale(snapshot) )
+            return snapshot;
+        final long now = System.currentTimeMillis();
+        if( lastAttempt != 0 && now - lastAttempt < refreshInterval )
+            return snapshot;
+        lastAttempt = now;
+
+        try {
+            final String manifest = resolveManifest();
+            if( manifest == null ) {
+                log.warn("Unable to find any S3 inventory report in: s3://{}/{}", bucket, key);
+            }
+            else if( snapshot == null || !snapshot.getManifest().equals("s3://" + bucket + "/" + manifest) ) {
+                snapshot = S3InventorySnapshot.load(client, bucket, manifest, prefixes);
+                staleReported = false;
+            }
+        }
+        catch( Exception e ) {
+            log.warn("Unable to load S3 inventory: s3://{}/{} -- {}", bucket, key, e.getMessage());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The key of the manifest file of the configured report or of the latest report in the configuration folder
+     */
+    private String resolveManifest() {
+        if( key.endsWith("manifest.json") )
+            return key;
+
+        final String prefix = key.isEmpty() || key.endsWith("/") ? key : key + "/";
+        final List<String> reports = new ArrayList<>();
+        ListObjectsV2Result listing = client.listObjectsV2(new ListObjectsV2Request()
+                .withBucketName(bucket)
+                .withPrefix(prefix)
+                .withDelimiter("/"));
+        while( true ) {
+            for( String folder : listing.getCommonPrefixes() ) {
+                if( REPORT_FOLDER.matcher(folder.substring(prefix.length())).matches() )
+                    reports.add(folder);
+            }
+            if( !listing.isTruncated() )
+                break;
+            listing = client.listNextBatchOfObjectsV2(listing);
+        }
+        // the folders are named by date, the latest one is the greatest
+        return reports.isEmpty() ? null : Collections.max(reports) + "manifest.json";
+    }
+
+    @Override
+    public String toString() {
+        return "S3Inventory[location=s3://" + bucket + "/" + key + "; maxAge=" + maxAge + "; stalePolicy=" + stalePolicy + "; snapshot=" + snapshot + "]";
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.DateUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upplication.s3fs.AmazonS3Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The content of a bucket as reported by an S3 Inventory report, used as listing source in place
+ * of the live listing requests.
+ * <p>
+ * The report is made of a {@code manifest.json} file, describing the report and its format, and
+ * of the data files listing the objects. Only the CSV format, optionally gzipped, is supported.
+ * The current version of each object is loaded in memory, sorted by key, and the listing requests
+ * are answered from it, see {@link S3ObjectIndex}.
+ * <p>
+ * All the data files are read when the snapshot is loaded, and each object held takes about 400 bytes
+ * of heap with a 50 characters key, i.e. about 4 GB for 10 million objects. When only some prefixes
+ * of the bucket are used, the objects loaded can be limited to them.
+ *
+ * @see <a href="https://docs.aws.amazon.com/AmazonS3/latest/userguide/storage-inventory.html">Amazon S3 Inventory</a>
+ */
+public class S3InventorySnapshot extends S3ObjectIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(S3InventorySnapshot.class);
+
+    private final String manifest;
+
+    private final long creationTime;
+
+    S3InventorySnapshot(String bucket, String manifest, long creationTime, NavigableMap<String,S3ObjectSummary> objects) {
+        super(bucket, objects);
+        this.manifest = manifest;
+        this.creationTime = creationTime;
+    }
+
+    /**
+     * @return The location of the inventory manifest file, as {@code s3://bucket/key}
+     */
+    public String getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return The time when the inventory has been taken, as milliseconds since the epoch
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Load the inventory described by the specified manifest
+     *
+     * @param client The client used to read the inventory files
+     * @param bucket The bucket containing the manifest
+     * @param key The key of the {@code manifest.json} file
+     * @param prefixes The key prefixes of the objects to be loaded or an empty list to load all of them
+     * @return The inventory snapshot
+     * @throws IOException If the inventory files cannot be read or they are not in CSV format
+     */
+    public static S3InventorySnapshot load(AmazonS3Client client, String bucket, String key, List<String> prefixes) throws IOException {
+        final JsonNode manifest;
+        try( S3Object object = client.getObject(bucket, key) ) {
+            manifest = new ObjectMapper().readTree(object.getObjectContent());
+        }
+        final String source = manifest.path("sourceBucket").asText();
+        final String format = manifest.path("fileFormat").asText();
+        if( !"CSV".equalsIgnoreCase(format) )
+            throw new IOException("Unsupported S3 inventory format: " + format + " -- Only CSV inventories can be used as listing source");
+
+        // the destination bucket is given as ARN e.g. arn:aws:s3:::bucket-name
+        String destination = manifest.path("destinationBucket").asText();
+        destination = destination.substring(destination.lastIndexOf(':') + 1);
+        final List<String> columns = new ArrayList<>();
+        for( String name : manifest.path("fileSchema").asText().split(",") )
+            columns.add(name.trim());
+
+        final NavigableMap<String,S3ObjectSummary> objects = new TreeMap<>();
+        for( JsonNode file : manifest.path("files") ) {
+            final String fileKey = file.path("key").asText();
+            log.debug("Loading S3 inventory file: s3://{}/{}", destination, fileKey);
+            try( S3Object object = client.getObject(destination, fileKey) ) {
+                InputStream in = object.getObjectContent();
+                if( fileKey.endsWith(".gz") )
+                    in = new GZIPInputStream(in);
+                parseCsv(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), columns, source, prefixes, objects);
+            }
+        }
+
+        final long creationTime = Long.parseLong(manifest.path("creationTimestamp").asText("0"));
+        log.debug("Loaded S3 inventory of bucket: {}; objects: {}; manifest: s3://{}/{}", source, objects.size(), bucket, key);
+        return new S3InventorySnapshot(source, "s3://" + bucket + "/" + key, creationTime, objects);
+    }
+
+    /**
+     * Parse the rows of an inventory CSV file, skipping the non-current versions, the delete markers
+     * and the keys not starting with any of the specified prefixes, if any
+     */
+    static void parseCsv(BufferedReader reader, List<String> columns, String bucket, List<String> prefixes, Map<String,S3ObjectSummary> target) throws IOException {
+        final int key = columns.indexOf("Key");
+        final int size = columns.indexOf("Size");
+        final int lastModified = columns.indexOf("LastModifiedDate");
+        final int etag = columns.indexOf("ETag");
+        final int storageClass = columns.indexOf("StorageClass");
+        final int isLatest = columns.indexOf("IsLatest");
+        final int isDeleteMarker = columns.indexOf("IsDeleteMarker");
+        if( key == -1 )
+            throw new IOException("Not a valid S3 inventory schema: " + columns);
+
+        String line;
+        while( (line = reader.readLine()) != null ) {
+            if( line.isEmpty() )
+                continue;
+            final List<String> row = parseRow(line);
+            if( "false".equalsIgnoreCase(field(row, isLatest)) || "true".equalsIgnoreCase(field(row, isDeleteMarker)) )
+                continue;
+            // the keys are URL encoded in the CSV inventory files
+            final String name = URLDecoder.decode(row.get(key), "UTF-8");
+            if( !startsWithAny(name, prefixes) )
+                continue;
+            final S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(bucket);
+            summary.setKey(name);
+            final String length = field(row, size);
+            summary.setSize(length != null && !length.isEmpty() ? Long.parseLong(length) : 0);
+            final String date = field(row, lastModified);
+            if( date != null && !date.isEmpty() )
+                summary.setLastModified(DateUtils.parseISO8601Date(date));
+            summary.setETag(field(row, etag));
+            summary.setStorageClass(field(row, storageClass));
+            target.put(summary.getKey(), summary);
+        }
+    }
+
+    private static boolean startsWithAny(String key, List<String> prefixes) {
+        if( prefixes.isEmpty() )
+            return true;
+        for( String prefix : prefixes ) {
+            if( key.startsWith(prefix) )
+                return true;
+        }
+        return false;
+    }
+
+    private static String field(List<String> row, int index) {
+        return index != -1 && index < row.size() ? row.get(index) : null;
+    }
+
+    /**
+     * Split a CSV row, the fields can be enclosed in double quotes, escaped by doubling them
+     */
+    static List<String> parseRow(String line) {
+        final List<String> result = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for( int i=0; i<line.length(); i++ ) {
+            final char ch = line.charAt(i);
+            if( quoted ) {
+                if( ch != '"' )
+                    field.append(ch);
+                else if( i+1 < line.length() && line.charAt(i+1) == '"' )
+                    field.append(line.charAt(++i));
+                else
+                    quoted = false;
+            }
+            else if( ch == '"' ) {
+                quoted = true;
+            }
+            else if( ch == ',' ) {
+                result.add(field.toString());
+                field.setLength(0);
+            }
+            else {
+                field.append(ch);
+            }
+        }
+        result.add(field.toString());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "S3InventorySnapshot[bucket=" + getBucket() + "; objects=" + size() + "; creationTime=" + creationTime + "; manifest=" + manifest + "]";
+    }
+}
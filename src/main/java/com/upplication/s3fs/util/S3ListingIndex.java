@@ -0,0 +1,436 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.base.Objects;
+import com.google.common.hash.Hashing;
+import com.upplication.s3fs.AmazonS3Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local persistent index of the objects under a set of prefixes, used as listing source
+ * of the directories under those prefixes and to look up the attributes of their objects.
+ * <p>
+ * Each prefix is indexed with a listing of all its keys, held in memory and saved to a local
+ * sorted file, so that the following runs can use it without listing the prefix again. The
+ * index is refreshed when it's older than the refresh interval, listing only the keys after
+ * the greatest key indexed. The listing starts right before the greatest key, so its ETag is
+ * compared with the indexed one and the index is rebuilt with a full listing when it changed.
+ * The keys added before the greatest key, e.g. in the middle of the prefix, and the objects
+ * overwritten or deleted by other clients are only detected by the full rebuild, which happens
+ * when the index is older than its max age. Until then the directory listings and the lookups
+ * of the attributes and existence of those objects answered by the index are stale.
+ * <p>
+ * The changes made through the file system under an indexed prefix are applied to the index
+ * held in memory, and saved with the next refresh. When the summary of a written object is not
+ * known the index is out of date instead: the live requests are used until the index is rebuilt
+ * after the refresh interval. The same happens when an update of the index fails.
+ * <p>
+ * The following properties are used to configure it:
+ * <ul>
+ *     <li>{@code listing_index_dir}: the local directory where the index files are saved (default none i.e. no index)</li>
+ *     <li>{@code listing_index_prefixes}: the comma separated list of prefixes to index e.g.
+ *     {@code s3://bucket/inputs/,s3://bucket/reference/}</li>
+ *     <li>{@code listing_index_refresh_interval}: the min interval (milliseconds) between two refreshes
+ *     of an index (default 5 minutes)</li>
+ *     <li>{@code listing_index_max_age}: the age (milliseconds) after which an index is rebuilt with a
+ *     full listing (default 15 minutes). The objects changed by other clients under an indexed prefix
+ *     can be reported with stale attributes, or as existing after their deletion, up to this age</li>
+ * </ul>
+ */
+public class S3ListingIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(S3ListingIndex.class);
+
+    public static final long DEFAULT_REFRESH_INTERVAL = 5 * 60 * 1000L;
+
+    public static final long DEFAULT_MAX_AGE = 15 * 60 * 1000L;
+
+    private final AmazonS3Client client;
+
+    private final S3ListingOptions options;
+
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    private long maxAge = DEFAULT_MAX_AGE;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public S3ListingIndex(Properties props, AmazonS3Client client, S3ListingOptions options) {
+        this.client = client;
+        this.options = options;
+        final String dir = props != null ? props.getProperty("listing_index_dir") : null;
+        final String prefixes = props != null ? props.getProperty("listing_index_prefixes") : null;
+        if( dir == null || dir.isEmpty() || prefixes == null || prefixes.isEmpty() )
+            return;
+
+        refreshInterval = parseLong(props.getProperty("listing_index_refresh_interval"), "refresh interval", refreshInterval);
+        maxAge = parseLong(props.getProperty("listing_index_max_age"), "max age", maxAge);
+        for( String location : prefixes.split(",") ) {
+            location = location.trim();
+            final int p = location.startsWith("s3://") ? location.indexOf('/', 5) : -1;
+            if( p == -1 ) {
+                log.warn("Not a valid S3 listing index prefix: `{}` -- It should be `s3://bucket/prefix/`", location);
+                continue;
+            }
+            String prefix = location.substring(p + 1);
+            if( !prefix.isEmpty() && !prefix.endsWith("/") )
+                prefix += "/";
+            entries.add(new Entry(location.substring(5, p), prefix, Paths.get(dir)));
+        }
+        log.debug("S3 listing index -- dir: {}; prefixes: {}; refreshInterval: {}ms; maxAge: {}ms", dir, prefixes, refreshInterval, maxAge);
+    }
+
+    private static long parseLong(String value, String name, long defValue) {
+        if( value == null )
+            return defValue;
+        try {
+            return Long.parseLong(value);
+        }
+        catch( NumberFormatException e ) {
+            log.warn("Not a valid S3 listing index {}: `{}` -- Using default", name, value);
+            return defValue;
+        }
+    }
+
+    public boolean isEnabled() {
+        return !entries.isEmpty();
+    }
+
+    /**
+     * Get the index of the prefix containing the specified key, loading or refreshing it when needed
+     *
+     * @param bucket The bucket name
+     * @param key The looked up key or the listed prefix
+     * @return The index or {@code null} when the key is not under an indexed prefix or its index is out of date
+     */
+    public S3ObjectIndex getIndex(String bucket, String key) {
+        final Entry entry = find(bucket, key);
+        return entry != null ? entry.get() : null;
+    }
+
+    /**
+     * Record that an object has been created or overwritten through the file system
+     *
+     * @param bucket The bucket name
+     * @param key The object key
+     * @param summary The summary of the object or {@code null} if not known
+     */
+    public void modified(String bucket, String key, S3ObjectSummary summary) {
+        final Entry entry = find(bucket, key);
+        if( entry != null )
+            entry.modified(key, summary);
+    }
+
+    /**
+     * Record that an object has been deleted through the file system
+     *
+     * @param bucket The bucket name
+     * @param key The object key
+     */
+    public void deleted(String bucket, String key) {
+        final Entry entry = find(bucket, key);
+        if( entry != null )
+            entry.deleted(key);
+    }
+
+    /**
+     * @return The entry of the prefix containing the key, the key of the indexed directory itself included
+     */
+    private Entry find(String bucket, String key) {
+        for( Entry entry : entries ) {
+            if( entry.bucket.equals(bucket) && (key + "/").startsWith(entry.prefix) )
+                return entry;
+        }
+        return null;
+    }
+
+    /**
+     * The index of a single prefix and its local files: the sorted objects and their properties
+     */
+    private class Entry {
+
+        private final String bucket;
+
+        private final String prefix;
+
+        private final Path dataFile;
+
+        private final Path propsFile;
+
+        private S3ObjectIndex index;
+
+        /**
+         * The time of the last full listing
+         */
+        private long created;
+
+        /**
+         * The time of the last refresh
+         */
+        private long refreshed;
+
+        /**
+         * The time of the last change made through the file system or 0 if none since the last full listing
+         */
+        private long modified;
+
+        /**
+         * The time of the last failed update or 0 if the last one succeeded
+         */
+        private long failed;
+
+        /**
+         * Whenever the index held in memory has changes not saved to the local files
+         */
+        private boolean unsaved;
+
+        Entry(String bucket, String prefix, Path dir) {
+            this.bucket = bucket;
+            this.prefix = prefix;
+            final String name = bucket + "-" + Hashing.md5().hashString(prefix, StandardCharsets.UTF_8);
+            this.dataFile = dir.resolve(name + ".idx.gz");
+            this.propsFile = dir.resolve(name + ".properties");
+        }
+
+        synchronized S3ObjectIndex get() {
+            final long now = System.currentTimeMillis();
+            // wait the refresh interval before retrying a failed update
+            if( failed != 0 && now - failed < refreshInterval )
+                return null;
+            try {
+                if( index == null && modified == 0 && Files.exists(propsFile) )
+                    loadOrIgnore();
+                if( modified != 0 ) {
+                    if( now - modified < refreshInterval )
+                        return null;
+                    rebuild(now);
+                }
+                else if( index == null || now - created >= maxAge ) {
+                    rebuild(now);
+                }
+                else if( now - refreshed >= refreshInterval ) {
+                    refresh(now);
+                }
+                failed = 0;
+            }
+            catch( IOException | RuntimeException e ) {
+                log.warn("Unable to update S3 listing index of s3://{}/{} -- {}", bucket, prefix, e.getMessage());
+                index = null;
+                failed = now;
+            }
+            return index;
+        }
+
+        synchronized void modified(String key, S3ObjectSummary summary) {
+            if( index != null && summary != null ) {
+                index.getObjects().put(key, summary);
+                discardSaved();
+            }
+            else {
+                drop();
+            }
+        }
+
+        synchronized void deleted(String key) {
+            if( index != null ) {
+                // the directory marker is deleted along with the object
+                index.getObjects().remove(key);
+                index.getObjects().remove(key + "/");
+                discardSaved();
+            }
+            else {
+                drop();
+            }
+        }
+
+        private void drop() {
+            modified = System.currentTimeMillis();
+            index = null;
+            discardSaved();
+        }
+
+        private void discardSaved() {
+            if( unsaved )
+                return;
+            unsaved = true;
+            // the following runs must not use the saved index
+            try {
+                Files.deleteIfExists(propsFile);
+            }
+            catch( IOException e ) {
+                log.warn("Unable to delete S3 listing index file: {} -- {}", propsFile, e.getMessage());
+            }
+        }
+
+        private void rebuild(long now) throws IOException {
+            log.debug("Building S3 listing index of s3://{}/{}", bucket, prefix);
+            final NavigableMap<String,S3ObjectSummary> objects = new ConcurrentSkipListMap<>();
+            ListObjectsV2Result page = client.listObjectsV2(options.newRequest(bucket, prefix, null));
+            addAll(page, objects);
+            index = new S3ObjectIndex(bucket, objects);
+            created = refreshed = now;
+            modified = 0;
+            save(true);
+        }
+
+        private void refresh(long now) throws IOException {
+            final NavigableMap<String,S3ObjectSummary> objects = index.getObjects();
+            if( objects.isEmpty() ) {
+                rebuild(now);
+                return;
+            }
+            // start the listing right before the greatest key to verify it has not changed
+            final String last = objects.lastKey();
+            final ListObjectsV2Request request = options.newRequest(bucket, prefix, null);
+            request.setStartAfter(objects.lowerKey(last));
+            final ListObjectsV2Result page = client.listObjectsV2(request);
+            final List<S3ObjectSummary> summaries = page.getObjectSummaries();
+            if( summaries.isEmpty() || !summaries.get(0).getKey().equals(last) || !Objects.equal(summaries.get(0).getETag(), objects.get(last).getETag()) ) {
+                log.debug("S3 listing index of s3://{}/{} is out of date -- Rebuilding it", bucket, prefix);
+                rebuild(now);
+                return;
+            }
+
+            final int count = objects.size();
+            addAll(page, objects);
+            log.debug("Refreshed S3 listing index of s3://{}/{} -- Added keys: {}", bucket, prefix, objects.size() - count);
+            refreshed = now;
+            save(unsaved || objects.size() > count);
+        }
+
+        private void addAll(ListObjectsV2Result page, NavigableMap<String,S3ObjectSummary> target) {
+            while( true ) {
+                for( S3ObjectSummary summary : page.getObjectSummaries() )
+                    target.put(summary.getKey(), summary);
+                if( !page.isTruncated() )
+                    return;
+                page = client.listNextBatchOfObjectsV2(page);
+            }
+        }
+
+        /**
+         * Save the index to the local files, the properties are always replaced after the objects
+         * and record their number, so that a partially saved index is never used
+         */
+        private void save(boolean objects) throws IOException {
+            Files.createDirectories(dataFile.getParent());
+            final NavigableMap<String,S3ObjectSummary> content = index.getObjects();
+            if( objects ) {
+                final Path temp = dataFile.resolveSibling(dataFile.getFileName() + ".tmp");
+                try( Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8) ) {
+                    for( S3ObjectSummary summary : content.values() ) {
+                        writer.write(URLEncoder.encode(summary.getKey(), "UTF-8"));
+                        writer.write('\t');
+                        writer.write(String.valueOf(summary.getSize()));
+                        writer.write('\t');
+                        writer.write(Objects.firstNonNull(summary.getETag(), ""));
+                        writer.write('\t');
+                        writer.write(summary.getLastModified() != null ? String.valueOf(summary.getLastModified().getTime()) : "");
+                        writer.write('\t');
+                        writer.write(Objects.firstNonNull(summary.getStorageClass(), ""));
+                        writer.write('\n');
+                    }
+                }
+                IOUtils.replace(temp, dataFile);
+            }
+
+            final Properties props = new Properties();
+            props.setProperty("bucket", bucket);
+            props.setProperty("prefix", prefix);
+            props.setProperty("count", String.valueOf(content.size()));
+            props.setProperty("created", String.valueOf(created));
+            props.setProperty("refreshed", String.valueOf(refreshed));
+            final Path temp = propsFile.resolveSibling(propsFile.getFileName() + ".tmp");
+            try( OutputStream out = Files.newOutputStream(temp) ) {
+                props.store(out, "S3 listing index");
+            }
+            IOUtils.replace(temp, propsFile);
+            unsaved = false;
+        }
+
+        private void loadOrIgnore() {
+            try {
+                load();
+            }
+            catch( IOException | RuntimeException e ) {
+                // the index is rebuilt from scratch
+                log.warn("Unable to load S3 listing index file: {} -- {}", dataFile, e.getMessage());
+            }
+        }
+
+        private void load() throws IOException {
+            final Properties props = new Properties();
+            try( InputStream in = Files.newInputStream(propsFile) ) {
+                props.load(in);
+            }
+            if( !bucket.equals(props.getProperty("bucket")) || !prefix.equals(props.getProperty("prefix")) )
+                return;
+
+            final NavigableMap<String,S3ObjectSummary> objects = new ConcurrentSkipListMap<>();
+            try( BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(dataFile)), StandardCharsets.UTF_8)) ) {
+                String line;
+                while( (line = reader.readLine()) != null ) {
+                    final String[] fields = line.split("\t", -1);
+                    final S3ObjectSummary summary = new S3ObjectSummary();
+                    summary.setBucketName(bucket);
+                    summary.setKey(URLDecoder.decode(fields[0], "UTF-8"));
+                    summary.setSize(Long.parseLong(fields[1]));
+                    summary.setETag(fields[2].isEmpty() ? null : fields[2]);
+                    summary.setLastModified(fields[3].isEmpty() ? null : new Date(Long.parseLong(fields[3])));
+                    summary.setStorageClass(fields[4].isEmpty() ? null : fields[4]);
+                    objects.put(summary.getKey(), summary);
+                }
+            }
+            if( objects.size() != Long.parseLong(props.getProperty("count", "-1")) ) {
+                log.debug("S3 listing index file {} does not match its properties -- Ignoring it", dataFile);
+                return;
+            }
+            index = new S3ObjectIndex(bucket, objects);
+            created = Long.parseLong(props.getProperty("created", "0"));
+            refreshed = Long.parseLong(props.getProperty("refreshed", "0"));
+            log.debug("Loaded S3 listing index of s3://{}/{} -- Objects: {}", bucket, prefix, objects.size());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.upplication.s3fs.util;
+
+import java.util.Properties;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Options controlling how the content of a directory is listed.
+ * <p>
+ * The listings use the ListObjectsV2 API, i.e. the pages are chained by continuation tokens
+ * and an arbitrary key can be used as listing start, see {@link #newRequest(String, String, String)}.
+ * The listing requests are answered by the S3 Inventory of the bucket instead of the live listing
+ * when configured, see {@link S3Inventory}.
+ * <p>
+ * The following properties are used to configure it:
+ * <ul>
+ *     <li>{@code listing_page_size}: the max number of keys returned by each listing request,
+ *     between 1 and 1000 (default 1000)</li>
+ *     <li>{@code listing_prefetch_depth}: the max number of listing pages requested in the background
+ *     ahead of the page being consumed, {@code 0} to fetch each page only when it's needed (default 1)</li>
+ *     <li>{@code listing_partition_depth}: the max number of pages buffered by each key range of a
+ *     partitioned listing ahead of the consumer (default 8)</li>
+ * </ul>
+ */
+public class S3ListingOptions {
+
+    private static final Logger log = LoggerFactory.getLogger(S3ListingOptions.class);
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public static final int DEFAULT_PREFETCH_DEPTH = 1;
+
+    public static final int DEFAULT_PARTITION_DEPTH = 8;
+
+    private int pageSize = MAX_PAGE_SIZE;
+
+    private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+
+    private int partitionDepth = DEFAULT_PARTITION_DEPTH;
+
+    public S3ListingOptions() {
+        this(null);
+    }
+
+    public S3ListingOptions(Properties props) {
+        if( props != null ) {
+            pageSize = parseInt(props.getProperty("listing_page_size"), "page size", pageSize);
+            prefetchDepth = parseInt(props.getProperty("listing_prefetch_depth"), "prefetch depth", prefetchDepth);
+            partitionDepth = parseInt(props.getProperty("listing_partition_depth"), "partition depth", partitionDepth);
+        }
+        if( pageSize < 1 || pageSize > MAX_PAGE_SIZE )
+            pageSize = MAX_PAGE_SIZE;
+        if( prefetchDepth < 0 )
+            prefetchDepth = 0;
+        // the ranges of a partitioned listing always need to be fetched in background
+        if( partitionDepth < 1 )
+            partitionDepth = 1;
+    }
+
+    private static int parseInt(String value, String name, int defValue) {
+        if( value == null )
+            return defValue;
+        try {
+            return Integer.parseInt(value);
+        }
+        catch( NumberFormatException e ) {
+            log.warn("Not a valid S3 listing {}: `{}` -- Using default", name, value);
+            return defValue;
+        }
+    }
+
+    /**
+     * Creates the request for the first page of a listing, with the configured page size and not
+     * fetching the object owners. The following pages are fetched with
+     * {@link com.upplication.s3fs.S3ListingSource#listNextBatchOfObjectsV2(com.amazonaws.services.s3.model.ListObjectsV2Result)}
+     *
+     * @param bucket The bucket name
+     * @param prefix The prefix of the listed keys
+     * @param delimiter The delimiter grouping the keys in common prefixes, or {@code null} to list all the keys
+     * @return The listing request
+     */
+    public ListObjectsV2Request newRequest(String bucket, String prefix, String delimiter) {
+        return new ListObjectsV2Request()
+                .withBucketName(bucket)
+                .withPrefix(prefix)
+                .withDelimiter(delimiter)
+                .withMaxKeys(pageSize)
+                .withFetchOwner(false);
+    }
+
+    /**
+     * @return The max number of keys returned by each listing request
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return The max number of listing pages fetched ahead of the consumer
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * @return The max number of pages buffered by each range of a partitioned listing
+     */
+    public int getPartitionDepth() {
+        return partitionDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "S3ListingOptions[pageSize=" + pageSize + "; prefetchDepth=" + prefetchDepth + "; partitionDepth=" + partitionDepth + "]";
+    }
+}
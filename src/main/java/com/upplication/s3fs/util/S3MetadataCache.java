@@ -0,0 +1,381 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.upplication.s3fs.S3Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-bounded and time-bounded cache of the object summaries resolved by {@link S3ObjectSummaryLookup}
+ * for a file system. The cached summary is either the one of the object matching the path or the one
+ * of its first child when the path is a directory.
+ * <p>
+ * The paths that do not exist are cached as well, for a shorter time, so that polling
+ * for a file that does not exist yet does not issue a listing on each attempt.
+ * <p>
+ * Finally it keeps track of the paths modified through the file system, so that the
+ * attributes attached to the paths returned by a directory listing can be checked for staleness.
+ * <p>
+ * The following properties are used to configure it:
+ * <ul>
+ *     <li>{@code metadata_cache_enabled}: {@code false} to disable the cache (default {@code true})</li>
+ *     <li>{@code metadata_cache_max_size}: the max number of cached paths (default 10000)</li>
+ *     <li>{@code metadata_cache_ttl}: the time in milliseconds after which an entry expires (default 5000)</li>
+ *     <li>{@code metadata_cache_negative_ttl}: the time in milliseconds after which a missing path entry expires,
+ *     {@code 0} to not cache missing paths (default 1000)</li>
+ *     <li>{@code metadata_listing_ttl}: the time in milliseconds during which the attributes of the paths
+ *     returned by a directory listing are used, {@code 0} to not use them (default 60000)</li>
+ *     <li>{@code metadata_prefetch_threshold}: the number of lookup misses for paths in the same directory
+ *     after which the directory content is listed and cached at once, {@code 0} to disable it (default 16)</li>
+ *     <li>{@code metadata_prefetch_window}: the time window in milliseconds in which the lookup misses are counted (default 1000)</li>
+ *     <li>{@code metadata_prefetch_max_keys}: the max number of keys fetched by a directory prefetch (default 5000)</li>
+ * </ul>
+ */
+public class S3MetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(S3MetadataCache.class);
+
+    public static final long DEFAULT_MAX_SIZE = 10_000;
+
+    public static final long DEFAULT_TTL = 5_000;
+
+    public static final long DEFAULT_NEGATIVE_TTL = 1_000;
+
+    public static final long DEFAULT_LISTING_TTL = 60_000;
+
+    public static final int DEFAULT_PREFETCH_THRESHOLD = 16;
+
+    public static final long DEFAULT_PREFETCH_WINDOW = 1_000;
+
+    public static final int DEFAULT_PREFETCH_MAX_KEYS = 5_000;
+
+    private boolean enabled = true;
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    private long ttl = DEFAULT_TTL;
+
+    private long negativeTtl = DEFAULT_NEGATIVE_TTL;
+
+    private long listingTtl = DEFAULT_LISTING_TTL;
+
+    private int prefetchThreshold = DEFAULT_PREFETCH_THRESHOLD;
+
+    private long prefetchWindow = DEFAULT_PREFETCH_WINDOW;
+
+    private int prefetchMaxKeys = DEFAULT_PREFETCH_MAX_KEYS;
+
+    private final Cache<S3Path,S3ObjectSummary> summaries;
+
+    private final Cache<S3Path,Boolean> missing;
+
+    private final Cache<S3Path,Long> modified;
+
+    /**
+     * The latest modification time of the paths evicted from {@link #modified} because of its size:
+     * the listing attributes fetched up to this time cannot be checked anymore and are considered stale
+     */
+    private final AtomicLong minFreshTimestamp = new AtomicLong();
+
+    /**
+     * Number of lookup misses by parent directory in the current prefetch window
+     */
+    private final Cache<S3Path,AtomicInteger> directoryMisses;
+
+    public S3MetadataCache() {
+        this(null);
+    }
+
+    public S3MetadataCache(Properties props) {
+        if( props != null ) {
+            enabled = !"false".equalsIgnoreCase(props.getProperty("metadata_cache_enabled"));
+            maxSize = parseLong(props.getProperty("metadata_cache_max_size"), "max size", maxSize);
+            ttl = parseLong(props.getProperty("metadata_cache_ttl"), "ttl", ttl);
+            negativeTtl = parseLong(props.getProperty("metadata_cache_negative_ttl"), "negative ttl", negativeTtl);
+            listingTtl = parseLong(props.getProperty("metadata_listing_ttl"), "listing ttl", listingTtl);
+            prefetchThreshold = (int) parseLong(props.getProperty("metadata_prefetch_threshold"), "prefetch threshold", prefetchThreshold);
+            prefetchWindow = parseLong(props.getProperty("metadata_prefetch_window"), "prefetch window", prefetchWindow);
+            prefetchMaxKeys = (int) parseLong(props.getProperty("metadata_prefetch_max_keys"), "prefetch max keys", prefetchMaxKeys);
+        }
+        if( listingTtl < 0 )
+            listingTtl = 0;
+        if( maxSize <= 0 || ttl <= 0 )
+            enabled = false;
+        if( !enabled || negativeTtl < 0 )
+            negativeTtl = 0;
+        // prefetched entries need to fit in the cache
+        if( enabled )
+            prefetchMaxKeys = (int) Math.min(prefetchMaxKeys, maxSize);
+        if( !enabled || prefetchWindow <= 0 || prefetchMaxKeys <= 0 || prefetchThreshold < 0 )
+            prefetchThreshold = 0;
+
+        summaries = CacheBuilder.newBuilder()
+                .maximumSize(enabled ? maxSize : 0)
+                .expireAfterWrite(enabled ? ttl : 1, TimeUnit.MILLISECONDS)
+                .build();
+        missing = CacheBuilder.newBuilder()
+                .maximumSize(negativeTtl > 0 ? maxSize : 0)
+                .expireAfterWrite(negativeTtl > 0 ? negativeTtl : 1, TimeUnit.MILLISECONDS)
+                .build();
+        // modification times need to be retained as long as the listing attributes are used,
+        // when one is evicted earlier all the attributes fetched before it are considered stale
+        modified = CacheBuilder.newBuilder()
+                .maximumSize(listingTtl > 0 ? Math.max(maxSize, DEFAULT_MAX_SIZE) : 0)
+                .expireAfterWrite(listingTtl > 0 ? listingTtl : 1, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<S3Path, Long>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<S3Path, Long> notification) {
+                        if( notification.getCause() == RemovalCause.SIZE )
+                            advanceMinFreshTimestamp(notification.getValue());
+                    }
+                })
+                .build();
+        // misses are counted in a fixed window starting with the first miss
+        directoryMisses = CacheBuilder.newBuilder()
+                .maximumSize(prefetchThreshold > 0 ? 1_000 : 0)
+                .expireAfterWrite(prefetchThreshold > 0 ? prefetchWindow : 1, TimeUnit.MILLISECONDS)
+                .build();
+        log.trace("S3 metadata cache -- enabled: {}; maxSize: {}; ttl: {}ms; negativeTtl: {}ms; prefetchThreshold: {}", enabled, maxSize, ttl, negativeTtl, prefetchThreshold);
+    }
+
+    private void advanceMinFreshTimestamp(long timestamp) {
+        long current;
+        while( (current = minFreshTimestamp.get()) < timestamp ) {
+            if( minFreshTimestamp.compareAndSet(current, timestamp) )
+                break;
+        }
+    }
+
+    private static long parseLong(String value, String name, long defValue) {
+        if( value == null )
+            return defValue;
+        try {
+            return Long.parseLong(value);
+        }
+        catch( NumberFormatException e ) {
+            log.warn("Not a valid S3 metadata cache {}: `{}` -- Using default", name, value);
+            return defValue;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public long getListingTtl() {
+        return listingTtl;
+    }
+
+    public int getPrefetchThreshold() {
+        return prefetchThreshold;
+    }
+
+    public long getPrefetchWindow() {
+        return prefetchWindow;
+    }
+
+    public int getPrefetchMaxKeys() {
+        return prefetchMaxKeys;
+    }
+
+    /**
+     * Record a lookup miss for a path and check whenever its parent directory content should be prefetched,
+     * that's when the number of misses for paths in the same directory reaches the prefetch threshold
+     * in the prefetch time window.
+     *
+     * @param path The path which has not been found in the cache
+     * @return {@code true} when the content of the path parent directory should be prefetched
+     */
+    public boolean recordMiss(S3Path path) {
+        if( prefetchThreshold <= 0 )
+            return false;
+        final S3Path parent = (S3Path) path.getParent();
+        if( parent == null )
+            return false;
+        final AtomicInteger count;
+        try {
+            count = directoryMisses.get(parent, new Callable<AtomicInteger>() {
+                @Override
+                public AtomicInteger call() {
+                    return new AtomicInteger();
+                }
+            });
+        }
+        catch( ExecutionException e ) {
+            throw new IllegalStateException(e);
+        }
+        if( count.incrementAndGet() < prefetchThreshold )
+            return false;
+        // start a new window for this directory
+        directoryMisses.invalidate(parent);
+        return true;
+    }
+
+    /**
+     * @param path The path to look up
+     * @return The cached summary for the specified path or {@code null} if it's not cached (or it's expired)
+     */
+    public S3ObjectSummary get(S3Path path) {
+        return enabled ? summaries.getIfPresent(path) : null;
+    }
+
+    public void put(S3Path path, S3ObjectSummary summary) {
+        if( enabled )
+            summaries.put(path, summary);
+    }
+
+    /**
+     * @param path The path to look up
+     * @return {@code true} when the path has been recently found not to exist
+     */
+    public boolean isMissing(S3Path path) {
+        return negativeTtl > 0 && missing.getIfPresent(path) != null;
+    }
+
+    /**
+     * Remember the specified path does not exist
+     *
+     * @param path The path which has not been found
+     */
+    public void putMissing(S3Path path) {
+        if( negativeTtl > 0 )
+            missing.put(path, Boolean.TRUE);
+    }
+
+    /**
+     * Discard the cached entries of the specified path and of all its parents, because creating
+     * or deleting an object may change whenever they exist or are directories. This includes the
+     * missing path entries, since creating a path makes all its parents exist as well
+     *
+     * @param path The path that has been modified
+     */
+    public void invalidate(S3Path path) {
+        final Long now = System.currentTimeMillis();
+        S3Path current = path;
+        while( current != null ) {
+            summaries.invalidate(current);
+            missing.invalidate(current);
+            if( listingTtl > 0 )
+                modified.put(current, now);
+            current = (S3Path) current.getParent();
+        }
+    }
+
+    /**
+     * Record a path which has just been created or overwritten through this file system: the
+     * entries of the path and of its parents are invalidated as for {@link #invalidate(S3Path)}
+     * and then the summary reported by the write response is cached, so that a stat following
+     * the write does not need any request
+     *
+     * @param path The path that has been written
+     * @param summary The summary of the new object or {@code null} if it's not known
+     */
+    public void update(S3Path path, S3ObjectSummary summary) {
+        invalidate(path);
+        if( summary != null )
+            put(path, summary);
+    }
+
+    /**
+     * Check whenever the attributes of a path fetched at the specified time can still be used,
+     * that's when they are not older than the listing ttl and the path has not been modified
+     * through this file system in the meanwhile. When the record of a modification has been
+     * evicted because of too many writes, the attributes fetched before it are not used
+     *
+     * @param path The path to which the attributes belong
+     * @param timestamp The time in milliseconds when the attributes have been fetched
+     * @return {@code true} if the attributes are fresh
+     */
+    public boolean isFresh(S3Path path, long timestamp) {
+        if( listingTtl <= 0 || System.currentTimeMillis() - timestamp > listingTtl )
+            return false;
+        if( timestamp <= minFreshTimestamp.get() )
+            return false;
+        final Long lastModified = modified.getIfPresent(path);
+        return lastModified == null || lastModified < timestamp;
+    }
+
+    /**
+     * Discard all the cached entries
+     */
+    public void invalidateAll() {
+        summaries.invalidateAll();
+        missing.invalidateAll();
+        modified.invalidateAll();
+        advanceMinFreshTimestamp(System.currentTimeMillis());
+        directoryMisses.invalidateAll();
+    }
+
+    public long size() {
+        return summaries.size();
+    }
+
+    public long getHitCount() {
+        return summaries.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return summaries.stats().missCount();
+    }
+
+    /**
+     * @return The number of lookups resolved as missing by the cache
+     */
+    public long getNegativeHitCount() {
+        return missing.stats().hitCount();
+    }
+
+    /**
+     * @return The cache statistics i.e. hit, miss and eviction counters
+     */
+    public CacheStats stats() {
+        return summaries.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "S3MetadataCache[enabled=" + enabled + "; maxSize=" + maxSize + "; ttl=" + ttl + "; negativeTtl=" + negativeTtl + "; " + summaries.stats() + "]";
+    }
+}
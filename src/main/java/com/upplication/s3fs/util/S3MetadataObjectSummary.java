@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.StorageClass;
+
+/**
+ * A {@link S3ObjectSummary} carrying the complete {@link ObjectMetadata} returned
+ * by a HEAD or GET request, i.e. including the content type, version id and user metadata
+ * which are not returned by a listing
+ */
+public class S3MetadataObjectSummary extends S3ObjectSummary {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ObjectMetadata metadata;
+
+    public S3MetadataObjectSummary(String bucketName, String key, ObjectMetadata metadata) {
+        // copy the metadata, since the one returned by the client is mutable
+        this.metadata = metadata.clone();
+        setBucketName(bucketName);
+        setKey(key);
+        setETag(metadata.getETag());
+        setLastModified(metadata.getLastModified());
+        setSize(metadata.getContentLength());
+        setStorageClass(metadata.getStorageClass() != null ? metadata.getStorageClass() : StorageClass.Standard.toString());
+    }
+
+    public ObjectMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Create the summary of an object which has just been uploaded. PUT and complete multipart
+     * upload responses only report the ETag of the new object, therefore the size is the one
+     * of the uploaded content and the last modified time is left unknown: such summary is
+     * enough to check the object existence but not to report its attributes
+     *
+     * @param bucketName The object bucket
+     * @param key The object key
+     * @param metadata The metadata sent along with the upload request
+     * @param length The length of the uploaded content
+     * @param etag The ETag returned by the upload response
+     * @return The summary of the uploaded object or {@code null} if the ETag is not known
+     */
+    public static S3MetadataObjectSummary uploaded(String bucketName, String key, ObjectMetadata metadata, long length, String etag) {
+        if( etag == null )
+            return null;
+        final ObjectMetadata result = metadata != null ? metadata.clone() : new ObjectMetadata();
+        result.setContentLength(length);
+        result.setHeader(Headers.ETAG, etag);
+        result.setLastModified(null);
+        return new S3MetadataObjectSummary(bucketName, key, result);
+    }
+
+    /**
+     * Whenever the summary reports all the object attributes. The summaries of uploaded and
+     * copied objects lack the last modified time, since it's not returned by the response
+     *
+     * @param summary The summary to check
+     * @return {@code true} when the summary last modified time is known
+     */
+    public static boolean isComplete(S3ObjectSummary summary) {
+        return summary.getLastModified() != null;
+    }
+}
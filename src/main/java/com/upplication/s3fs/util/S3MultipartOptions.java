@@ -32,6 +32,21 @@ public class S3MultipartOptions<V extends S3MultipartOptions> {
 
     public static final int DEFAULT_CHUNK_SIZE = 100 << 20;
 
+    /**
+     * Min size of a multipart upload part, except the last one
+     */
+    public static final int MIN_PART_SIZE = 5 << 20;
+
+    /**
+     * Max size of a multipart upload part
+     */
+    public static final long MAX_PART_SIZE = 5L << 30;
+
+    /**
+     * Max number of parts of a multipart upload
+     */
+    public static final int MAX_PARTS = 10_000;
+
     /**
      * Upload chunk max size
      */
@@ -79,10 +94,9 @@ public class S3MultipartOptions<V extends S3MultipartOptions> {
     }
 
     public int getChunkSize( long objectSize ) {
-        final int MAX_PARTS = 10_000;
         long numOfParts = objectSize / chunkSize;
         if( numOfParts > MAX_PARTS ) {
-            chunkSize = (int) objectSize / MAX_PARTS;
+            chunkSize = (int) ((objectSize + MAX_PARTS - 1) / MAX_PARTS);
         }
 
         return chunkSize;
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.upplication.s3fs.S3ListingSource;
+
+/**
+ * The objects of a bucket held in memory sorted by key, used as listing source in place
+ * of the live listing requests.
+ * <p>
+ * The listing requests are answered with the same semantic of the ListObjectsV2 API, the
+ * continuation tokens returned are the last key or common prefix of the page. An index
+ * updated while in use, as the {@link S3ListingIndex} ones, is backed by a concurrent map.
+ */
+public class S3ObjectIndex implements S3ListingSource {
+
+    private final String bucket;
+
+    private final NavigableMap<String,S3ObjectSummary> objects;
+
+    S3ObjectIndex(String bucket, NavigableMap<String,S3ObjectSummary> objects) {
+        this.bucket = bucket;
+        this.objects = objects;
+    }
+
+    /**
+     * @return The name of the indexed bucket
+     */
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return The indexed objects by key
+     */
+    NavigableMap<String,S3ObjectSummary> getObjects() {
+        return objects;
+    }
+
+    /**
+     * @return The number of objects in the index
+     */
+    public int size() {
+        return objects.size();
+    }
+
+    /**
+     * Lookup for an object in the index
+     *
+     * @param key The object key
+     * @return The summary of the object or of the first object under the key when it's a directory,
+     * or {@code null} when there's no such object
+     */
+    public S3ObjectSummary lookup(String key) {
+        final S3ObjectSummary result = objects.get(key);
+        if( result != null )
+            return result;
+        final String prefix = key.isEmpty() || key.endsWith("/") ? key : key + "/";
+        final Map.Entry<String,S3ObjectSummary> child = objects.ceilingEntry(prefix);
+        return child != null && child.getKey().startsWith(prefix) ? child.getValue() : null;
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+        final String after = request.getContinuationToken() != null ? request.getContinuationToken() : request.getStartAfter();
+        final ListObjectsV2Result result = list(request.getPrefix(), request.getDelimiter(), after, request.getMaxKeys());
+        result.setStartAfter(request.getStartAfter());
+        result.setContinuationToken(request.getContinuationToken());
+        return result;
+    }
+
+    @Override
+    public ListObjectsV2Result listNextBatchOfObjectsV2(ListObjectsV2Result previous) {
+        final ListObjectsV2Result result = list(previous.getPrefix(), previous.getDelimiter(), previous.getNextContinuationToken(), previous.getMaxKeys());
+        result.setContinuationToken(previous.getNextContinuationToken());
+        return result;
+    }
+
+    private ListObjectsV2Result list(String prefix, String delimiter, String after, Integer maxKeys) {
+        if( prefix == null )
+            prefix = "";
+        if( delimiter != null && delimiter.isEmpty() )
+            delimiter = null;
+        final int max = maxKeys != null && maxKeys > 0 ? maxKeys : S3ListingOptions.MAX_PAGE_SIZE;
+        if( after != null && after.compareTo(prefix) < 0 )
+            after = null;
+
+        final ListObjectsV2Result result = new ListObjectsV2Result();
+        result.setBucketName(bucket);
+        result.setPrefix(prefix);
+        result.setDelimiter(delimiter);
+        result.setMaxKeys(max);
+        final List<String> prefixes = new ArrayList<>();
+        int count = 0;
+        String last = null;
+        Map.Entry<String,S3ObjectSummary> entry = after != null ? objects.higherEntry(after) : objects.ceilingEntry(prefix);
+        while( entry != null && entry.getKey().startsWith(prefix) ) {
+            final String key = entry.getKey();
+            final int p = delimiter != null ? key.indexOf(delimiter, prefix.length()) : -1;
+            final String common = p != -1 ? key.substring(0, p + delimiter.length()) : null;
+            final String element = common != null ? common : key;
+            if( after == null || element.compareTo(after) > 0 ) {
+                if( count == max ) {
+                    result.setTruncated(true);
+                    result.setNextContinuationToken(last);
+                    break;
+                }
+                if( common != null )
+                    prefixes.add(common);
+                else
+                    result.getObjectSummaries().add(entry.getValue());
+                last = element;
+                count++;
+            }
+            // skip all the keys grouped in the same common prefix
+            entry = objects.higherEntry(common != null ? common + Character.MAX_VALUE : key);
+        }
+        result.setCommonPrefixes(prefixes);
+        result.setKeyCount(count);
+        return result;
+    }
+}
@@ -43,11 +43,15 @@ package com.upplication.s3fs.util;
 
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
+import com.amazonaws.AbortedException;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
@@ -60,22 +64,122 @@ public class S3ObjectSummaryLookup {
 
     private static final Logger log = LoggerFactory.getLogger(S3ObjectSummary.class);
 
+    /**
+     * Lookups in flight, concurrent lookups for the same path share the same request
+     */
+    private final SingleFlight<S3Path,S3ObjectSummary> pendingLookups = new SingleFlight<>();
+
+    /**
+     * Metadata requests in flight, concurrent requests for the same object share the same request
+     */
+    private final SingleFlight<S3Path,ObjectMetadata> pendingMetadata = new SingleFlight<>();
+
+    /**
+     * Directory prefetches in flight
+     */
+    private final SingleFlight<S3Path,Set<String>> pendingPrefetch = new SingleFlight<>();
+
+    /**
+     * Get the {@link com.amazonaws.services.s3.model.S3ObjectSummary} that represent this Path or her first child if this path not exists
+     * @param s3Path {@link com.upplication.s3fs.S3Path}
+     * @return {@link com.amazonaws.services.s3.model.S3ObjectSummary}
+     * @throws java.nio.file.NoSuchFileException if not found the path and any child
+     */
+    public S3ObjectSummary lookup(final S3Path s3Path) throws NoSuchFileException {
+        return lookup(s3Path, false);
+    }
+
     /**
      * Get the {@link com.amazonaws.services.s3.model.S3ObjectSummary} that represent this Path or her first child if this path not exists
      * @param s3Path {@link com.upplication.s3fs.S3Path}
+     * @param complete When {@code true} the summaries lacking the last modified time, i.e. the ones of
+     *      objects uploaded or copied by this file system, are ignored and the object is looked up
      * @return {@link com.amazonaws.services.s3.model.S3ObjectSummary}
      * @throws java.nio.file.NoSuchFileException if not found the path and any child
      */
-    public S3ObjectSummary lookup(S3Path s3Path) throws NoSuchFileException {
+    public S3ObjectSummary lookup(final S3Path s3Path, boolean complete) throws NoSuchFileException {
 
         /*
          * check is object summary has been cached
          */
+        final S3MetadataCache cache = s3Path.getFileSystem().getMetadataCache();
         S3ObjectSummary summary = s3Path.fetchObjectSummary();
-        if( summary != null ) {
+        if( summary != null && (!complete || S3MetadataObjectSummary.isComplete(summary)) && (s3Path.getFileAttributes() == null || cache.isFresh(s3Path, s3Path.getFileAttributes().getTimestamp())) ) {
+            return summary;
+        }
+
+        summary = cache.get(s3Path);
+        if( summary != null && (!complete || S3MetadataObjectSummary.isComplete(summary)) ) {
             return summary;
         }
 
+        /*
+         * when the path content is listed from an index, answer from it
+         */
+        final S3ObjectIndex index = s3Path.getFileSystem().getObjectIndex(s3Path.getBucket(), s3Path.getKey());
+        if( index != null ) {
+            summary = index.lookup(s3Path.getKey());
+            if( summary == null )
+                throw new NoSuchFileException("s3://" + s3Path.getBucket() + "/" + s3Path.toString());
+            if( !complete || S3MetadataObjectSummary.isComplete(summary) )
+                return summary;
+        }
+        else if( cache.isMissing(s3Path) ) {
+            throw new NoSuchFileException("s3://" + s3Path.getBucket() + "/" + s3Path.toString());
+        }
+
+        try {
+            return pendingLookups.execute(s3Path, new Callable<S3ObjectSummary>() {
+                @Override
+                public S3ObjectSummary call() throws Exception {
+                    return cachedLookup(s3Path, cache);
+                }
+            });
+        }
+        catch( NoSuchFileException | RuntimeException e ) {
+            throw e;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Lookup interrupted for path: " + s3Path, e);
+        }
+        catch( Exception e ) {
+            throw new IllegalStateException("Unexpected error looking up path: " + s3Path, e);
+        }
+    }
+
+    private S3ObjectSummary cachedLookup(S3Path s3Path, S3MetadataCache cache) throws Exception {
+        /*
+         * when many paths in the same directory are looked up in a short time
+         * fetch the whole directory content with a listing and cache it
+         */
+        if( cache.recordMiss(s3Path) ) {
+            final Set<String> prefixes = prefetchParent(s3Path, cache);
+            final S3ObjectSummary result = cache.get(s3Path);
+            if( result != null && S3MetadataObjectSummary.isComplete(result) )
+                return result;
+            // the complete directory content has been fetched and the path is neither a file nor a sub-directory
+            if( result == null && prefixes != null && !prefixes.contains(s3Path.getKey() + "/") ) {
+                cache.putMissing(s3Path);
+                throw new NoSuchFileException("s3://" + s3Path.getBucket() + "/" + s3Path.toString());
+            }
+        }
+
+        final S3ObjectSummary summary;
+        try {
+            summary = lookup0(s3Path);
+        }
+        catch( NoSuchFileException e ) {
+            cache.putMissing(s3Path);
+            throw e;
+        }
+        cache.put(s3Path, summary);
+        return summary;
+    }
+
+    private S3ObjectSummary lookup0(S3Path s3Path) throws NoSuchFileException {
+        S3ObjectSummary summary;
+
         final AmazonS3Client client = s3Path.getFileSystem().getClient();
 
         /*
@@ -97,20 +201,120 @@ public class S3ObjectSummaryLookup {
             return summary;
         }
 
-        /*
-         * Lookup for the object summary for the specified object key
-         * by using a `listObjects` request
-         */
-        String marker = null;
+        try {
+            return headLookup(s3Path);
+        }
+        catch( AmazonS3Exception e ) {
+            // the HEAD request requires the `GetObject` permission, fall back
+            // on the listing lookup when only the `ListBucket` permission is granted
+            if( e.getStatusCode() != 403 )
+                throw e;
+            log.debug("Access denied to object metadata for path: {} -- Fall back on listing lookup", s3Path);
+            return listLookup(s3Path);
+        }
+    }
+
+    private Set<String> prefetchParent(S3Path s3Path, final S3MetadataCache cache) throws Exception {
+        final S3Path parent = (S3Path) s3Path.getParent();
+        return pendingPrefetch.execute(parent, new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() {
+                return prefetch(parent, cache);
+            }
+        });
+    }
+
+    /**
+     * Lists the content of the specified directory, up to the prefetch max keys, and stores the
+     * summaries of the files found in the metadata cache.
+     *
+     * @param dir The directory to prefetch
+     * @param cache The metadata cache where to store the file summaries
+     * @return The common prefixes i.e. the sub-directories found in the directory or {@code null}
+     *  if the directory content exceeds the prefetch max keys and therefore it has not been fetched entirely
+     */
+    protected Set<String> prefetch(S3Path dir, S3MetadataCache cache) {
+        final AmazonS3Client client = dir.getFileSystem().getClient();
+        final String key = dir.getKey();
+        final String prefix = key.isEmpty() || key.endsWith("/") ? key : key + "/";
+        final int maxKeys = cache.getPrefetchMaxKeys();
+
+        final ListObjectsV2Request request = dir.getFileSystem().getListingOptions().newRequest(dir.getBucket(), prefix, "/");
+        request.setMaxKeys(Math.min(S3ListingOptions.MAX_PAGE_SIZE, maxKeys));
+        log.debug("Prefetching content of directory: {}", dir);
+
+        final Set<String> prefixes = new HashSet<>();
+        int count = 0;
+        ListObjectsV2Result listing = client.listObjectsV2(request);
+        while( true ) {
+            for( S3ObjectSummary item : listing.getObjectSummaries() ) {
+                if( item.getKey().equals(prefix) )
+                    continue;
+                cache.put(new S3Path(dir.getFileSystem(), "/" + dir.getBucket(), item.getKey().split("/")), item);
+            }
+            prefixes.addAll(listing.getCommonPrefixes());
+            count += listing.getObjectSummaries().size() + listing.getCommonPrefixes().size();
+
+            if( !listing.isTruncated() )
+                return prefixes;
+            if( count >= maxKeys )
+                return null;
+            listing = client.listNextBatchOfObjectsV2(listing);
+        }
+    }
+
+    /**
+     * Lookup for the object summary by using a HEAD request on the object key and, when the
+     * object does not exist, a single item listing of the keys having the path as directory prefix.
+     * This requires at most two requests, independently of the number of keys sharing the same prefix.
+     *
+     * @param s3Path The path to look up
+     * @return The summary of the object or of the first child when the path is a directory
+     * @throws NoSuchFileException If the path does not exist
+     */
+    protected S3ObjectSummary headLookup(S3Path s3Path) throws NoSuchFileException {
+        final AmazonS3Client client = s3Path.getFileSystem().getClient();
+        final String key = s3Path.getKey();
+
+        ObjectMetadata meta = null;
+        try {
+            meta = client.getObjectMetadata(s3Path.getBucket(), key);
+        }
+        catch( AmazonS3Exception e ) {
+            if( e.getStatusCode() != 404 )
+                throw e;
+        }
+        if( meta != null ) {
+            return new S3MetadataObjectSummary(s3Path.getBucket(), key, meta);
+        }
+
+        // it's not a file, check if it's a directory i.e. there's any key with the path as prefix
+        final ListObjectsV2Request request = s3Path.getFileSystem().getListingOptions().newRequest(s3Path.getBucket(), key.endsWith("/") ? key : key + "/", null);
+        request.setMaxKeys(1);
+
+        final List<S3ObjectSummary> results = client.listObjectsV2(request).getObjectSummaries();
+        if( !results.isEmpty() )
+            return results.get(0);
+
+        throw new NoSuchFileException("s3://" + s3Path.getBucket() + "/" + s3Path.toString());
+    }
+
+    /**
+     * Lookup for the object summary for the specified object key by scanning
+     * the `listObjectsV2` pages of all the keys starting with the path key
+     *
+     * @param s3Path The path to look up
+     * @return The summary of the object or of the first child when the path is a directory
+     * @throws NoSuchFileException If the path does not exist
+     */
+    protected S3ObjectSummary listLookup(S3Path s3Path) throws NoSuchFileException {
+        final AmazonS3Client client = s3Path.getFileSystem().getClient();
+
+        final ListObjectsV2Request request = s3Path.getFileSystem().getListingOptions().newRequest(s3Path.getBucket(), s3Path.getKey(), null);
+        request.setMaxKeys(250);
+
+        ListObjectsV2Result listing = client.listObjectsV2(request);
         while( true ) {
-            ListObjectsRequest request = new ListObjectsRequest();
-            request.setBucketName(s3Path.getBucket());
-            request.setPrefix(s3Path.getKey());
-            request.setMaxKeys(250);
-            if( marker != null )
-                request.setMarker(marker);
-
-            ObjectListing listing = client.listObjects(request);
             List<S3ObjectSummary> results = listing.getObjectSummaries();
 
             if (results.isEmpty()){
@@ -123,8 +327,9 @@ public class S3ObjectSummaryLookup {
                 }
             }
 
+            // the next page is requested with the continuation token of the current one
             if( listing.isTruncated() )
-                marker = listing.getNextMarker();
+                listing = client.listNextBatchOfObjectsV2(listing);
             else
                 break;
         }
@@ -147,7 +352,35 @@ public class S3ObjectSummaryLookup {
         return foundKey.charAt(fileName.length()) == '/';
     }
 
-    public ObjectMetadata getS3ObjectMetadata(S3Path s3Path) {
+    /**
+     * Get the metadata of the object for the specified path. Concurrent requests for the same path
+     * share the same HEAD request.
+     *
+     * @param s3Path The path of the object
+     * @return The {@link ObjectMetadata} of the object or {@code null} if it does not exist
+     */
+    public ObjectMetadata getS3ObjectMetadata(final S3Path s3Path) {
+        try {
+            return pendingMetadata.execute(s3Path, new Callable<ObjectMetadata>() {
+                @Override
+                public ObjectMetadata call() throws Exception {
+                    return getS3ObjectMetadata0(s3Path);
+                }
+            });
+        }
+        catch( RuntimeException e ) {
+            throw e;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Metadata request interrupted for path: " + s3Path, e);
+        }
+        catch( Exception e ) {
+            throw new IllegalStateException("Unexpected error fetching metadata for path: " + s3Path, e);
+        }
+    }
+
+    private ObjectMetadata getS3ObjectMetadata0(S3Path s3Path) {
         AmazonS3Client client = s3Path.getFileSystem().getClient();
         try {
             return client.getObjectMetadata(s3Path.getBucket(), s3Path.getKey());
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The progress of a scan of all the keys under a prefix, split in key ranges scanned concurrently.
+ * <p>
+ * For each range it holds its boundaries, the last key processed and the number of keys processed,
+ * so that an interrupted scan can be resumed listing each range after its last processed key.
+ * The checkpoint is persisted as a properties file, for example:
+ * <pre>
+ *     bucket=my-bucket
+ *     prefix=data/
+ *     ranges=2
+ *     range.0.end_at=data/S
+ *     range.0.last_key=data/M/file.txt
+ *     range.0.count=1000
+ *     range.0.done=false
+ *     range.1.start_after=data/S
+ *     range.1.count=0
+ *     range.1.done=false
+ * </pre>
+ * The file is written to a temporary file and then moved over the previous one, therefore a
+ * failure while saving never leaves a truncated checkpoint.
+ */
+public class S3ScanCheckpoint {
+
+    private final String bucket;
+
+    private final String prefix;
+
+    private final List<Range> ranges = new ArrayList<>();
+
+    /**
+     * The progress of a single key range
+     */
+    public static class Range {
+
+        private final String startAfter;
+
+        private final String endAt;
+
+        private String lastKey;
+
+        private long count;
+
+        private boolean done;
+
+        Range(String startAfter, String endAt) {
+            this.startAfter = startAfter;
+            this.endAt = endAt;
+        }
+
+        /**
+         * @return The key after which the range starts (exclusive) or {@code null} if it starts from the beginning
+         */
+        public String getStartAfter() {
+            return startAfter;
+        }
+
+        /**
+         * @return The key at which the range ends (inclusive) or {@code null} if it ends at the end
+         */
+        public String getEndAt() {
+            return endAt;
+        }
+
+        /**
+         * @return The last key processed or {@code null} if no key has been processed yet
+         */
+        public String getLastKey() {
+            return lastKey;
+        }
+
+        /**
+         * @return The key after which a resumed scan continues the listing of this range
+         */
+        public String getResumeAfter() {
+            return lastKey != null ? lastKey : startAfter;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+    }
+
+    /**
+     * Creates the checkpoint of a new scan
+     *
+     * @param bucket The scanned bucket
+     * @param prefix The prefix of the scanned keys
+     * @param boundaries The sorted keys splitting the scan in ranges, each range includes its upper boundary
+     */
+    public S3ScanCheckpoint(String bucket, String prefix, List<String> boundaries) {
+        this(bucket, prefix);
+        String startAfter = null;
+        for (String boundary : boundaries) {
+            Preconditions.checkArgument(startAfter == null || boundary.compareTo(startAfter) > 0, "boundaries should be sorted and distinct: %s", boundaries);
+            ranges.add(new Range(startAfter, boundary));
+            startAfter = boundary;
+        }
+        ranges.add(new Range(startAfter, null));
+    }
+
+    private S3ScanCheckpoint(String bucket, String prefix) {
+        this.bucket = bucket;
+        this.prefix = prefix;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public List<Range> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * @return The number of keys processed in all the ranges
+     */
+    public synchronized long getCount() {
+        long result = 0;
+        for (Range range : ranges)
+            result += range.count;
+        return result;
+    }
+
+    /**
+     * @return {@code true} when all the ranges have been scanned completely
+     */
+    public synchronized boolean isDone() {
+        for (Range range : ranges)
+            if (!range.done)
+                return false;
+        return true;
+    }
+
+    /**
+     * Record a key as processed
+     *
+     * @param index The index of the range containing the key
+     * @param key The processed key, greater than the keys previously processed in the same range
+     */
+    public synchronized void processed(int index, String key) {
+        final Range range = ranges.get(index);
+        range.lastKey = key;
+        range.count++;
+    }
+
+    /**
+     * Record a range as scanned completely
+     *
+     * @param index The range index
+     */
+    public synchronized void done(int index) {
+        ranges.get(index).done = true;
+    }
+
+    /**
+     * Save the checkpoint to the specified file, replacing it atomically
+     *
+     * @param file The checkpoint file
+     * @throws IOException If the checkpoint cannot be written
+     */
+    public void save(Path file) throws IOException {
+        final Properties props = toProperties();
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final OutputStream out = Channels.newOutputStream(channel);
+            props.store(out, "S3 scan checkpoint");
+            out.flush();
+            // make sure the content is on disk before replacing the previous checkpoint
+            channel.force(true);
+        }
+        IOUtils.replace(temp, file);
+    }
+
+    private synchronized Properties toProperties() {
+        final Properties props = new Properties();
+        props.setProperty("bucket", bucket);
+        props.setProperty("prefix", prefix);
+        props.setProperty("ranges", String.valueOf(ranges.size()));
+        for (int i = 0; i < ranges.size(); i++) {
+            final Range range = ranges.get(i);
+            if (range.startAfter != null)
+                props.setProperty("range." + i + ".start_after", range.startAfter);
+            if (range.endAt != null)
+                props.setProperty("range." + i + ".end_at", range.endAt);
+            if (range.lastKey != null)
+                props.setProperty("range." + i + ".last_key", range.lastKey);
+            props.setProperty("range." + i + ".count", String.valueOf(range.count));
+            props.setProperty("range." + i + ".done", String.valueOf(range.done));
+        }
+        return props;
+    }
+
+    /**
+     * Load the checkpoint saved in the specified file
+     *
+     * @param file The checkpoint file
+     * @return The checkpoint
+     * @throws IOException If the file cannot be read or is not a valid checkpoint
+     */
+    public static S3ScanCheckpoint load(Path file) throws IOException {
+        final Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        }
+        final String bucket = props.getProperty("bucket");
+        final String prefix = props.getProperty("prefix");
+        final String count = props.getProperty("ranges");
+        if (bucket == null || prefix == null || count == null)
+            throw new IOException("Not a valid S3 scan checkpoint: " + file);
+        try {
+            final int size = Integer.parseInt(count);
+            final S3ScanCheckpoint result = new S3ScanCheckpoint(bucket, prefix);
+            for (int i = 0; i < size; i++) {
+                final Range range = new Range(props.getProperty("range." + i + ".start_after"), props.getProperty("range." + i + ".end_at"));
+                range.lastKey = props.getProperty("range." + i + ".last_key");
+                range.count = Long.parseLong(props.getProperty("range." + i + ".count", "0"));
+                range.done = Boolean.parseBoolean(props.getProperty("range." + i + ".done"));
+                result.ranges.add(range);
+            }
+            return result;
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Not a valid S3 scan checkpoint: " + file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "S3ScanCheckpoint[bucket=" + bucket + "; prefix=" + prefix + "; ranges=" + ranges.size() + "; count=" + getCount() + "]";
+    }
+}
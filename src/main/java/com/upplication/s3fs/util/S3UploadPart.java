@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+/**
+ * Model a part of a multipart upload composing an object either by copying a
+ * range of the existing object content server-side or by uploading a range of a local file
+ */
+public class S3UploadPart {
+
+    private final long offset;
+
+    private final long length;
+
+    private final boolean copy;
+
+    private S3UploadPart(long offset, long length, boolean copy) {
+        this.offset = offset;
+        this.length = length;
+        this.copy = copy;
+    }
+
+    /**
+     * @param offset The offset of the range in the local file
+     * @param length The length of the range
+     * @return A part uploading a range of the local file
+     */
+    public static S3UploadPart upload(long offset, long length) {
+        return new S3UploadPart(offset, length, false);
+    }
+
+    /**
+     * @param offset The offset of the range in the existing object
+     * @param length The length of the range
+     * @return A part copying a range of the existing object
+     */
+    public static S3UploadPart copy(long offset, long length) {
+        return new S3UploadPart(offset, length, true);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isCopy() {
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return (copy ? "copy" : "upload") + "[" + offset + "-" + (offset+length-1) + "]";
+    }
+}
@@ -47,6 +47,10 @@ public class S3UploadRequest extends S3MultipartOptions<S3UploadRequest> {
      */
     private ObjectMetadata metadata;
 
+    /**
+     * Content type to be assigned to the stored S3 object, when {@code null} it's detected
+     */
+    private String contentType;
 
 
     public S3UploadRequest() {
@@ -57,6 +61,7 @@ public class S3UploadRequest extends S3MultipartOptions<S3UploadRequest> {
         super(props);
         setStorageClass(props.getProperty("upload_storage_class"));
         setStorageEncryption(props.getProperty("storage_encryption"));
+        setContentType(props.getProperty("upload_content_type"));
     }
 
     public S3ObjectId getObjectId() {
@@ -71,6 +76,10 @@ public class S3UploadRequest extends S3MultipartOptions<S3UploadRequest> {
         return metadata;
     }
 
+    public String getContentType() {
+        return contentType;
+    }
+
 
     public S3UploadRequest setObjectId(S3ObjectId objectId) {
         this.objectId = objectId;
@@ -115,10 +124,16 @@ public class S3UploadRequest extends S3MultipartOptions<S3UploadRequest> {
         return this;
     }
 
+    public S3UploadRequest setContentType(String contentType) {
+        this.contentType = contentType;
+        return this;
+    }
+
     public String toString() {
         return "objectId=" + objectId +
                 "storageClass=" + storageClass +
                 "metadata=" + metadata +
+                "contentType=" + contentType +
                 super.toString();
     }
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020, Seqera Labs
+ * Copyright 2013-2019, Centre for Genomic Regulation (CRG)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.upplication.s3fs.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the concurrent executions of a task for the same key, so that the threads
+ * asking for the same key while a task is in flight share its result (or its failure)
+ * instead of running it again.
+ * <p>
+ * The pending tasks are kept in a {@link ConcurrentHashMap}, therefore threads requesting
+ * different keys do not contend on the same lock.
+ *
+ * @param <K> The type of the key
+ * @param <V> The type of the task result
+ */
+public class SingleFlight<K,V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs the specified task unless a task for the same key is already in flight,
+     * in that case it waits for the pending task to complete and returns its result.
+     *
+     * @param key The key identifying the task
+     * @param task The task to run
+     * @return The task result
+     * @throws Exception The exception thrown by the task
+     */
+    public V execute(K key, Callable<V> task) throws Exception {
+        final FutureTask<V> future = new FutureTask<>(task);
+        FutureTask<V> current = pending.putIfAbsent(key, future);
+        if( current == null ) {
+            current = future;
+            try {
+                future.run();
+            }
+            finally {
+                pending.remove(key, future);
+            }
+        }
+        else {
+            coalesced.incrementAndGet();
+        }
+
+        try {
+            return current.get();
+        }
+        catch( ExecutionException e ) {
+            final Throwable cause = e.getCause();
+            if( cause instanceof Exception )
+                throw (Exception) cause;
+            if( cause instanceof Error )
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of requests which have been served by a task already in flight
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,431 @@
+package com.upplication.s3fs
+
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.amazonaws.services.s3.AbstractAmazonS3
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest
+import com.amazonaws.services.s3.model.AccessControlList
+import com.amazonaws.services.s3.model.AmazonS3Exception
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult
+import com.amazonaws.services.s3.model.CopyObjectRequest
+import com.amazonaws.services.s3.model.CopyObjectResult
+import com.amazonaws.services.s3.model.CopyPartRequest
+import com.amazonaws.services.s3.model.CopyPartResult
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest
+import com.amazonaws.services.s3.model.GetObjectRequest
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult
+import com.amazonaws.services.s3.model.ListObjectsRequest
+import com.amazonaws.services.s3.model.ListObjectsV2Request
+import com.amazonaws.services.s3.model.ListObjectsV2Result
+import com.amazonaws.services.s3.model.ObjectListing
+import com.amazonaws.services.s3.model.ObjectMetadata
+import com.amazonaws.services.s3.model.PutObjectRequest
+import com.amazonaws.services.s3.model.PutObjectResult
+import com.amazonaws.services.s3.model.S3Object
+import com.amazonaws.services.s3.model.S3ObjectInputStream
+import com.amazonaws.services.s3.model.S3ObjectSummary
+import com.amazonaws.services.s3.model.UploadPartRequest
+import com.amazonaws.services.s3.model.UploadPartResult
+
+/**
+ * A minimal in-memory stand-in of the Amazon S3 service, counting
+ * the requests received by operation name
+ */
+class InMemoryS3 extends AbstractAmazonS3 {
+
+    static class Blob {
+        byte[] data
+        ObjectMetadata metadata
+        Date lastModified
+        String etag
+        String storageClass = 'STANDARD'
+    }
+
+    static class Upload {
+        String bucket
+        String key
+        ObjectMetadata metadata
+        Map<Integer,byte[]> parts = new ConcurrentSkipListMap<>()
+    }
+
+    final Map<String, NavigableMap<String,Blob>> buckets = new ConcurrentHashMap<>()
+
+    final Map<String, Upload> uploads = new ConcurrentHashMap<>()
+
+    final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>()
+
+    /**
+     * The prefixes of the listing requests
+     */
+    final Queue<String> listedPrefixes = new ConcurrentLinkedQueue<>()
+
+    /**
+     * The ListObjectsV2 requests received
+     */
+    final Queue<ListObjectsV2Request> listRequests = new ConcurrentLinkedQueue<>()
+
+    /**
+     * Operations failing with an access denied error
+     */
+    final Set<String> denied = ConcurrentHashMap.newKeySet()
+
+    /**
+     * Simulated latency (milliseconds) of each request
+     */
+    volatile long latency
+
+    // ~ helpers
+
+    int count(String op) {
+        requests.get(op)?.get() ?: 0
+    }
+
+    int getTotalRequests() {
+        requests.values().sum { it.get() } as Integer ?: 0
+    }
+
+    void resetCounters() {
+        requests.clear()
+    }
+
+    protected void hit(String op) {
+        requests.computeIfAbsent(op, { new AtomicInteger() }).incrementAndGet()
+        if( latency )
+            sleep(latency)
+        if( denied.contains(op) ) {
+            final e = new AmazonS3Exception("Access Denied")
+            e.statusCode = 403
+            e.errorCode = 'AccessDenied'
+            throw e
+        }
+    }
+
+    NavigableMap<String,Blob> bucket(String name) {
+        buckets.computeIfAbsent(name, { new ConcurrentSkipListMap<String,Blob>() })
+    }
+
+    Blob blob(String bucketName, String key) {
+        bucket(bucketName).get(key)
+    }
+
+    InMemoryS3 put(String bucketName, String key, byte[] data) {
+        store(bucketName, key, data, new ObjectMetadata())
+        return this
+    }
+
+    InMemoryS3 put(String bucketName, String key, String content) {
+        put(bucketName, key, content.bytes)
+    }
+
+    byte[] data(String bucketName, String key) {
+        blob(bucketName, key)?.data
+    }
+
+    /**
+     * Creates a file system backed by this stand-in
+     */
+    S3FileSystem newFileSystem(Map<String,String> env=[:]) {
+        final s3 = this
+        final provider = new S3FileSystemProvider() {
+            @Override
+            protected S3FileSystem createFileSystem0(URI uri, Object accessKey, Object secretKey, Object sessionToken) {
+                new S3FileSystem(this, new AmazonS3Client(s3), null)
+            }
+        }
+        return (S3FileSystem) provider.newFileSystem(URI.create('s3:///'), env)
+    }
+
+    protected Blob store(String bucketName, String key, byte[] data, ObjectMetadata metadata, String etag=null) {
+        final blob = new Blob(data: data, metadata: metadata ?: new ObjectMetadata(), lastModified: new Date(), etag: etag ?: md5(data))
+        bucket(bucketName).put(key, blob)
+        return blob
+    }
+
+    static protected String md5(byte[] data) {
+        MessageDigest.getInstance('MD5').digest(data).encodeHex().toString()
+    }
+
+    static protected AmazonS3Exception notFound(String key) {
+        final e = new AmazonS3Exception("The specified key does not exist: $key")
+        e.statusCode = 404
+        e.errorCode = 'NoSuchKey'
+        return e
+    }
+
+    protected Blob fetch(String bucketName, String key) {
+        final result = blob(bucketName, key)
+        if( result == null )
+            throw notFound(key)
+        return result
+    }
+
+    protected ObjectMetadata metadataOf(Blob blob) {
+        final result = blob.metadata.clone()
+        result.setContentLength(blob.data.length)
+        result.setHeader('ETag', blob.etag)
+        result.setLastModified(blob.lastModified)
+        return result
+    }
+
+    // ~ objects
+
+    @Override
+    ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        getObjectMetadata(new GetObjectMetadataRequest(bucketName, key))
+    }
+
+    @Override
+    ObjectMetadata getObjectMetadata(GetObjectMetadataRequest req) {
+        hit('getObjectMetadata')
+        if( !req.key )
+            return new ObjectMetadata()
+        metadataOf(fetch(req.bucketName, req.key))
+    }
+
+    @Override
+    S3Object getObject(String bucketName, String key) {
+        getObject(new GetObjectRequest(bucketName, key))
+    }
+
+    @Override
+    S3Object getObject(GetObjectRequest req) {
+        hit('getObject')
+        final blob = fetch(req.bucketName, req.key)
+        if( req.matchingETagConstraints && !req.matchingETagConstraints.contains(blob.etag) )
+            return null
+
+        byte[] content = blob.data
+        if( req.range ) {
+            final long start = req.range[0]
+            final long end = Math.min(req.range[1], blob.data.length-1)
+            content = Arrays.copyOfRange(blob.data, (int)start, (int)end+1)
+        }
+        final result = new S3Object()
+        result.bucketName = req.bucketName
+        result.key = req.key
+        result.objectMetadata = metadataOf(blob)
+        result.objectMetadata.setContentLength(content.length)
+        result.objectContent = new S3ObjectInputStream(new ByteArrayInputStream(content), null)
+        return result
+    }
+
+    @Override
+    PutObjectResult putObject(String bucketName, String key, String content) {
+        putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(content.bytes), new ObjectMetadata()))
+    }
+
+    @Override
+    PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+        putObject(new PutObjectRequest(bucketName, key, input, metadata))
+    }
+
+    @Override
+    PutObjectResult putObject(PutObjectRequest req) {
+        hit('putObject')
+        final data = req.file ? req.file.bytes : req.inputStream.bytes
+        final blob = store(req.bucketName, req.key, data, req.metadata?.clone())
+        if( req.storageClass )
+            blob.storageClass = req.storageClass
+        final result = new PutObjectResult()
+        result.ETag = blob.etag
+        final meta = new ObjectMetadata()
+        meta.setHeader('ETag', blob.etag)
+        result.metadata = meta
+        return result
+    }
+
+    @Override
+    AccessControlList getObjectAcl(String bucketName, String key) {
+        hit('getObjectAcl')
+        fetch(bucketName, key)
+        return new AccessControlList()
+    }
+
+    @Override
+    void deleteObject(String bucketName, String key) {
+        hit('deleteObject')
+        bucket(bucketName).remove(key)
+    }
+
+    @Override
+    CopyObjectResult copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey) {
+        copyObject(new CopyObjectRequest(sourceBucketName, sourceKey, destinationBucketName, destinationKey))
+    }
+
+    @Override
+    CopyObjectResult copyObject(CopyObjectRequest req) {
+        hit('copyObject')
+        final source = fetch(req.sourceBucketName, req.sourceKey)
+        final blob = store(req.destinationBucketName, req.destinationKey, source.data, req.newObjectMetadata ?: source.metadata.clone(), source.etag)
+        final result = new CopyObjectResult()
+        result.ETag = blob.etag
+        result.lastModifiedDate = blob.lastModified
+        return result
+    }
+
+    // ~ multipart
+
+    @Override
+    InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest req) {
+        hit('initiateMultipartUpload')
+        final id = UUID.randomUUID().toString()
+        uploads.put(id, new Upload(bucket: req.bucketName, key: req.key, metadata: req.objectMetadata))
+        final result = new InitiateMultipartUploadResult()
+        result.bucketName = req.bucketName
+        result.key = req.key
+        result.uploadId = id
+        return result
+    }
+
+    @Override
+    UploadPartResult uploadPart(UploadPartRequest req) {
+        hit('uploadPart')
+        final upload = uploads.get(req.uploadId)
+        final buffer = new byte[req.partSize as int]
+        new DataInputStream(req.inputStream).readFully(buffer)
+        upload.parts.put(req.partNumber, buffer)
+        final result = new UploadPartResult()
+        result.partNumber = req.partNumber
+        result.ETag = md5(buffer)
+        return result
+    }
+
+    @Override
+    CopyPartResult copyPart(CopyPartRequest req) {
+        hit('copyPart')
+        final source = fetch(req.sourceBucketName, req.sourceKey)
+        if( req.matchingETagConstraints && !req.matchingETagConstraints.contains(source.etag) )
+            return null
+        final upload = uploads.get(req.uploadId)
+        final first = req.firstByte != null ? req.firstByte : 0L
+        final last = req.lastByte != null ? req.lastByte : source.data.length-1
+        final data = Arrays.copyOfRange(source.data, first as int, (last+1) as int)
+        upload.parts.put(req.partNumber, data)
+        final result = new CopyPartResult()
+        result.partNumber = req.partNumber
+        result.ETag = md5(data)
+        return result
+    }
+
+    @Override
+    CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest req) {
+        hit('completeMultipartUpload')
+        final upload = uploads.remove(req.uploadId)
+        final out = new ByteArrayOutputStream()
+        for( def tag : req.partETags.sort { it.partNumber } ) {
+            out.write(upload.parts.get(tag.partNumber))
+        }
+        final blob = store(upload.bucket, upload.key, out.toByteArray(), upload.metadata, md5(out.toByteArray()) + '-' + req.partETags.size())
+        final result = new CompleteMultipartUploadResult()
+        result.bucketName = upload.bucket
+        result.key = upload.key
+        result.ETag = blob.etag
+        return result
+    }
+
+    @Override
+    void abortMultipartUpload(AbortMultipartUploadRequest req) {
+        hit('abortMultipartUpload')
+        uploads.remove(req.uploadId)
+    }
+
+    // ~ listing
+
+    @Override
+    ObjectListing listObjects(ListObjectsRequest req) {
+        hit('listObjects')
+        listedPrefixes.add(req.prefix ?: '')
+        list(req.bucketName, req.prefix, req.marker, req.delimiter, req.maxKeys)
+    }
+
+    @Override
+    ObjectListing listNextBatchOfObjects(ObjectListing previous) {
+        hit('listObjects')
+        list(previous.bucketName, previous.prefix, previous.nextMarker, previous.delimiter, previous.maxKeys)
+    }
+
+    @Override
+    ListObjectsV2Result listObjectsV2(ListObjectsV2Request req) {
+        hit('listObjectsV2')
+        listedPrefixes.add(req.prefix ?: '')
+        listRequests.add(req)
+        // the continuation token is opaque for the clients, here it just encodes the last returned key
+        final marker = req.continuationToken ? new String(req.continuationToken.decodeBase64(), 'UTF-8') : req.startAfter
+        final listing = list(req.bucketName, req.prefix, marker, req.delimiter, req.maxKeys)
+        final result = new ListObjectsV2Result()
+        result.bucketName = req.bucketName
+        result.prefix = req.prefix
+        result.delimiter = req.delimiter
+        result.maxKeys = listing.maxKeys
+        result.startAfter = req.startAfter
+        result.continuationToken = req.continuationToken
+        result.truncated = listing.truncated
+        result.nextContinuationToken = listing.truncated ? listing.nextMarker.getBytes('UTF-8').encodeBase64().toString() : null
+        result.objectSummaries.addAll(listing.objectSummaries)
+        result.commonPrefixes = listing.commonPrefixes
+        result.keyCount = listing.objectSummaries.size() + listing.commonPrefixes.size()
+        return result
+    }
+
+    protected ObjectListing list(String bucketName, String prefix, String marker, String delimiter, Integer maxKeys) {
+        prefix = prefix ?: ''
+        final max = maxKeys ?: 1000
+        final result = new ObjectListing()
+        result.bucketName = bucketName
+        result.prefix = prefix
+        result.marker = marker
+        result.delimiter = delimiter
+        result.maxKeys = max
+        final prefixes = new ArrayList<String>()
+
+        final entries = marker && marker >= prefix ? bucket(bucketName).tailMap(marker, false) : bucket(bucketName).tailMap(prefix, true)
+        String last = null
+        int count = 0
+        for( Map.Entry<String,Blob> entry : entries ) {
+            final key = entry.key
+            if( !key.startsWith(prefix) )
+                break
+            String element = key
+            if( delimiter ) {
+                final p = key.indexOf(delimiter, prefix.length())
+                if( p != -1 )
+                    element = key.substring(0, p + delimiter.length())
+            }
+            if( element == last || (marker && element <= marker) )
+                continue
+            if( count == max ) {
+                result.truncated = true
+                result.nextMarker = last
+                break
+            }
+            if( element != key ) {
+                prefixes.add(element)
+            }
+            else {
+                result.objectSummaries.add(summary(bucketName, key, entry.value))
+            }
+            last = element
+            count++
+        }
+        result.commonPrefixes = prefixes
+        return result
+    }
+
+    protected S3ObjectSummary summary(String bucketName, String key, Blob blob) {
+        final result = new S3ObjectSummary()
+        result.bucketName = bucketName
+        result.key = key
+        result.size = blob.data.length
+        result.ETag = blob.etag
+        result.lastModified = blob.lastModified
+        result.storageClass = blob.storageClass
+        return result
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.upplication.s3fs
+
+import java.nio.ByteBuffer
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardOpenOption
+
+import spock.lang.Specification
+
+class S3ByteChannelTest extends Specification {
+
+    static byte[] randomBytes(int len) {
+        final result = new byte[len]
+        new Random(len).nextBytes(result)
+        return result
+    }
+
+    static void write(S3Path path, byte[] data, StandardOpenOption... opts) {
+        def channel = Files.newByteChannel(path, opts as Set)
+        try {
+            channel.write(ByteBuffer.wrap(data))
+        }
+        finally {
+            channel.close()
+        }
+    }
+
+    def 'should upload a small file with a single put' () {
+        given:
+        def s3 = new InMemoryS3()
+        def fs = s3.newFileSystem(upload_chunk_size: '1024')
+        def path = (S3Path) fs.getPath('/bucket/data/hello.txt')
+
+        when:
+        write(path, 'Hello world'.bytes, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+        then:
+        s3.count('putObject') == 1
+        s3.count('initiateMultipartUpload') == 0
+        new String(s3.data('bucket', 'data/hello.txt')) == 'Hello world'
+        s3.blob('bucket', 'data/hello.txt').metadata.contentType == 'text/plain'
+    }
+
+    def 'should upload a large file with a multipart upload' () {
+        given:
+        def s3 = new InMemoryS3()
+        def fs = s3.newFileSystem(upload_chunk_size: '1024', upload_content_type: 'foo/bar')
+        def path = (S3Path) fs.getPath('/bucket/data/file.bin')
+        def DATA = randomBytes(5000)
+
+        when:
+        write(path, DATA, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+        then:
+        s3.count('putObject') == 0
+        s3.count('initiateMultipartUpload') == 1
+        s3.count('uploadPart') == 5
+        s3.count('completeMultipartUpload') == 1
+        s3.data('bucket', 'data/file.bin') == DATA
+        s3.blob('bucket', 'data/file.bin').metadata.contentType == 'foo/bar'
+    }
+
+    def 'should not download the object when truncating or creating it' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello world')
+        def fs = s3.newFileSystem()
+        def path = (S3Path) fs.getPath('/bucket/data/file.txt')
+
+        when:
+        write(path, 'Ciao'.bytes, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+        then:
+        s3.count('getObject') == 0
+        new String(s3.data('bucket', 'data/file.txt')) == 'Ciao'
+
+        when:
+        write((S3Path)fs.getPath('/bucket/data/new.txt'), 'Hola'.bytes, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+        then:
+        s3.count('getObject') == 0
+        new String(s3.data('bucket', 'data/new.txt')) == 'Hola'
+
+        when:
+        write(path, 'Hola'.bytes, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+        then:
+        thrown(FileAlreadyExistsException)
+    }
+
+    def 'should fetch only the blocks being read' () {
+        given:
+        def DATA = randomBytes(1000)
+        def s3 = new InMemoryS3().put('bucket', 'data/file.bin', DATA)
+        def fs = s3.newFileSystem(channel_block_size: '100')
+        def path = (S3Path) fs.getPath('/bucket/data/file.bin')
+
+        when:
+        def channel = Files.newByteChannel(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+        def buffer = ByteBuffer.allocate(50)
+        channel.position(420)
+        channel.read(buffer)
+        then:
+        s3.count('getObject') == 1
+        buffer.array() == Arrays.copyOfRange(DATA, 420, 470)
+        channel.size() == 1000
+
+        when:
+        // a write covering a whole block does not download it
+        channel.position(600)
+        channel.write(ByteBuffer.wrap(new byte[100]))
+        then:
+        s3.count('getObject') == 1
+
+        when:
+        channel.close()
+        then:
+        s3.count('putObject') == 1
+        and:
+        def expected = DATA.clone()
+        Arrays.fill(expected, 600, 700, (byte)0)
+        s3.data('bucket', 'data/file.bin') == expected
+    }
+
+    def 'should not upload a read only channel' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello world')
+        def fs = s3.newFileSystem()
+        def path = (S3Path) fs.getPath('/bucket/data/file.txt')
+
+        expect:
+        new String(Files.readAllBytes(path)) == 'Hello world'
+        s3.count('putObject') == 0
+
+        when:
+        Files.newByteChannel(fs.getPath('/bucket/data/missing.txt'))
+        then:
+        thrown(NoSuchFileException)
+    }
+
+    def 'should append to the object content' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello')
+        def fs = s3.newFileSystem()
+        def path = (S3Path) fs.getPath('/bucket/data/file.txt')
+
+        when:
+        write(path, ' world'.bytes, StandardOpenOption.APPEND)
+        then:
+        new String(s3.data('bucket', 'data/file.txt')) == 'Hello world'
+    }
+
+    def 'should copy the unmodified blocks and upload only the modified ones' () {
+        given:
+        def MB = 1 << 20
+        def DATA = randomBytes(12 * MB)
+        def s3 = new InMemoryS3().put('bucket', 'data/file.bin', DATA)
+        def fs = s3.newFileSystem(channel_block_size: String.valueOf(5 * MB))
+        def path = (S3Path) fs.getPath('/bucket/data/file.bin')
+        s3.resetCounters()
+
+        when:
+        def channel = Files.newByteChannel(path, StandardOpenOption.WRITE)
+        channel.position(6 * MB)
+        channel.write(ByteBuffer.wrap('Hello'.bytes))
+        channel.close()
+        then:
+        s3.count('putObject') == 0
+        s3.count('getObject') == 1
+        s3.count('copyPart') == 2
+        s3.count('uploadPart') == 1
+        s3.count('completeMultipartUpload') == 1
+        and:
+        def expected = DATA.clone()
+        System.arraycopy('Hello'.bytes, 0, expected, 6 * MB, 5)
+        Arrays.equals(s3.data('bucket', 'data/file.bin'), expected)
+    }
+
+    def 'should append to a large object without downloading it' () {
+        given:
+        def MB = 1 << 20
+        def DATA = randomBytes(10 * MB)
+        def s3 = new InMemoryS3().put('bucket', 'data/file.bin', DATA)
+        def fs = s3.newFileSystem(channel_block_size: String.valueOf(5 * MB))
+        def path = (S3Path) fs.getPath('/bucket/data/file.bin')
+        s3.resetCounters()
+
+        when:
+        write(path, 'Hello'.bytes, StandardOpenOption.APPEND)
+        then:
+        s3.count('getObject') == 0
+        s3.count('copyPart') == 1
+        s3.count('uploadPart') == 1
+        and:
+        def expected = new ByteArrayOutputStream()
+        expected.write(DATA)
+        expected.write('Hello'.bytes)
+        Arrays.equals(s3.data('bucket', 'data/file.bin'), expected.toByteArray())
+    }
+
+    def 'should copy the partial last block of the object when appending to it' () {
+        given:
+        def MB = 1 << 20
+        def DATA = randomBytes(SIZE * MB)
+        def s3 = new InMemoryS3().put('bucket', 'data/file.bin', DATA)
+        def fs = s3.newFileSystem(channel_block_size: String.valueOf(5 * MB))
+        def path = (S3Path) fs.getPath('/bucket/data/file.bin')
+        s3.resetCounters()
+
+        when:
+        def channel = Files.newByteChannel(path, StandardOpenOption.WRITE)
+        if( MODIFIED != null ) {
+            channel.position(MODIFIED * MB)
+            channel.write(ByteBuffer.wrap('Hola'.bytes))
+        }
+        channel.position(SIZE * MB)
+        channel.write(ByteBuffer.wrap('Hello'.bytes))
+        channel.close()
+        then:
+        s3.count('getObject') == GETS
+        s3.count('copyPart') == COPIES
+        s3.count('uploadPart') == UPLOADS
+        and:
+        def expected = new ByteArrayOutputStream()
+        expected.write(DATA)
+        expected.write('Hello'.bytes)
+        def bytes = expected.toByteArray()
+        if( MODIFIED != null )
+            System.arraycopy('Hola'.bytes, 0, bytes, MODIFIED * MB, 4)
+        Arrays.equals(s3.data('bucket', 'data/file.bin'), bytes)
+
+        where:
+        SIZE    | MODIFIED  | GETS  | COPIES    | UPLOADS
+        12      | null      | 0     | 1         | 1
+        12      | 1         | 1     | 1         | 2
+        // the 1MB tail after the modified block is too small to be copied
+        11      | 6         | 2     | 1         | 1
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.upplication.s3fs
+
+import java.nio.file.DirectoryStream
+import java.nio.file.Files
+import java.nio.file.Path
+
+import spock.lang.Specification
+
+class S3DirectoryFilterTest extends Specification {
+
+    static InMemoryS3 files() {
+        def s3 = new InMemoryS3()
+        for( int i=0; i<3000; i++ )
+            s3.put('bucket', String.format('data/chunk_%04d.bin', i), 'x')
+        for( int i=0; i<5; i++ )
+            s3.put('bucket', "data/reads_${i}.fq.gz", 'x')
+        s3.put('bucket', 'data/reads_dir/foo.txt', 'x')
+        s3.put('bucket', 'data/summary.txt', 'x')
+        return s3
+    }
+
+    static List<String> list(S3FileSystem fs, DirectoryStream.Filter<Path> filter) {
+        fs.provider().newDirectoryStream(fs.getPath('/bucket/data'), filter).withCloseable { it.collect { it.fileName.toString() } }
+    }
+
+    def 'should push the filter prefix into the listing request' () {
+        given:
+        def s3 = files()
+        def fs = s3.newFileSystem()
+
+        when:
+        def result = list(fs, FILTER)
+        then:
+        result.sort() == EXPECTED
+        s3.listedPrefixes.toList() == [PREFIX]
+        s3.count('listObjectsV2') == 1
+
+        where:
+        FILTER                                      | PREFIX            | EXPECTED
+        S3DirectoryFilter.prefix('reads_')          | 'data/reads_'     | ['reads_0.fq.gz', 'reads_1.fq.gz', 'reads_2.fq.gz', 'reads_3.fq.gz', 'reads_4.fq.gz', 'reads_dir']
+        S3DirectoryFilter.glob('reads_*.fq.gz')     | 'data/reads_'     | ['reads_0.fq.gz', 'reads_1.fq.gz', 'reads_2.fq.gz', 'reads_3.fq.gz', 'reads_4.fq.gz']
+        S3DirectoryFilter.glob('reads_{1,3}*')      | 'data/reads_'     | ['reads_1.fq.gz', 'reads_3.fq.gz']
+        S3DirectoryFilter.glob('s*.txt')            | 'data/s'          | ['summary.txt']
+    }
+
+    def 'should filter the raw names when there is no prefix' () {
+        given:
+        def s3 = files()
+        def fs = s3.newFileSystem()
+
+        when:
+        def result = list(fs, S3DirectoryFilter.suffix('.txt'))
+        then:
+        result == ['summary.txt']
+        s3.listedPrefixes.toSet() == ['data/'] as Set
+        s3.count('listObjectsV2') == 4
+    }
+
+    def 'should apply any other filter to the listed paths' () {
+        given:
+        def fs = files().newFileSystem()
+
+        when:
+        def result = list(fs, { Path it -> Files.isDirectory(it) } as DirectoryStream.Filter<Path>)
+        then:
+        result == ['reads_dir']
+
+        when:
+        result = Files.newDirectoryStream(fs.getPath('/bucket/data'), '*.gz').withCloseable { it.collect { it.fileName.toString() } }
+        then:
+        result.size() == 5
+    }
+}
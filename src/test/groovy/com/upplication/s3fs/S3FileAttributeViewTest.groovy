@@ -0,0 +1,98 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributeView
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.FileTime
+
+import spock.lang.Specification
+
+class S3FileAttributeViewTest extends Specification {
+
+    static InMemoryS3 store() {
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello world')
+        def blob = s3.blob('bucket', 'data/file.txt')
+        blob.metadata.contentType = 'text/plain'
+        blob.metadata.addUserMetadata('owner', 'me')
+        blob.storageClass = 'STANDARD_IA'
+        return s3
+    }
+
+    def 'should read the s3 attributes from a HEAD request' () {
+        given:
+        def s3 = store()
+        def fs = s3.newFileSystem()
+        def path = fs.getPath('/bucket/data/file.txt')
+
+        when:
+        def attrs = Files.readAttributes(path, S3FileAttributes)
+        then:
+        attrs.regularFile
+        attrs.size() == 11
+        attrs.eTag() == 'Hello world'.md5()
+        attrs.fileKey() == attrs.eTag()
+        attrs.contentType() == 'text/plain'
+        attrs.userMetadata() == [owner: 'me']
+        and:
+        s3.count('getObjectMetadata') == 1
+    }
+
+    def 'should read the s3 attributes from a listing' () {
+        given:
+        def s3 = store()
+        def fs = s3.newFileSystem()
+        def path = Files.newDirectoryStream(fs.getPath('/bucket/data')).iterator().next()
+
+        when:
+        def attrs = Files.readAttributes(path, S3FileAttributes)
+        then:
+        attrs.eTag() == 'Hello world'.md5()
+        attrs.storageClass() == 'STANDARD_IA'
+        attrs.contentType() == null
+        and:
+        s3.count('getObjectMetadata') == 0
+    }
+
+    def 'should read the attributes as a map' () {
+        given:
+        def fs = store().newFileSystem()
+        def path = fs.getPath('/bucket/data/file.txt')
+
+        expect:
+        Files.readAttributes(path, 'size,fileKey') == [size: 11L, fileKey: 'Hello world'.md5()]
+        Files.readAttributes(path, 'basic:isDirectory') == [isDirectory: false]
+        Files.readAttributes(path, 's3:contentType,eTag') == [contentType: 'text/plain', eTag: 'Hello world'.md5()]
+        Files.readAttributes(path, 's3:*').keySet().containsAll(['size', 'lastModifiedTime', 'eTag', 'storageClass', 'versionId', 'userMetadata'])
+        Files.readAttributes(fs.getPath('/bucket/data'), 's3:isDirectory,eTag') == [isDirectory: true, eTag: null]
+
+        when:
+        Files.readAttributes(path, 's3:foo')
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        Files.readAttributes(path, 'posix:*')
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def 'should return the attribute view' () {
+        given:
+        def fs = store().newFileSystem()
+        def path = fs.getPath('/bucket/data/file.txt')
+
+        expect:
+        Files.getFileAttributeView(path, S3FileAttributeView).readAttributes().contentType() == 'text/plain'
+        Files.getFileAttributeView(path, BasicFileAttributeView).readAttributes().size() == 11
+        Files.getFileAttributeView(path, BasicFileAttributeView).name() == 'basic'
+        Files.getFileAttributeView(path, S3FileAttributeView).name() == 's3'
+        Files.getFileAttributeView(path, java.nio.file.attribute.PosixFileAttributeView) == null
+        Files.getLastModifiedTime(path) == Files.readAttributes(path, BasicFileAttributes).lastModifiedTime()
+        fs.supportedFileAttributeViews() == ['basic', 's3'] as Set
+
+        when:
+        Files.setLastModifiedTime(path, FileTime.fromMillis(0))
+        then:
+        thrown(IOException)
+    }
+}
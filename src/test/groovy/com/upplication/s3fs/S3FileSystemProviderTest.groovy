@@ -0,0 +1,82 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+
+import spock.lang.Specification
+
+class S3FileSystemProviderTest extends Specification {
+
+    def 'should fingerprint an object without downloading it' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello world')
+        def fs = s3.newFileSystem()
+        def provider = (S3FileSystemProvider) fs.provider()
+        def blob = s3.blob('bucket', 'data/file.txt')
+
+        when:
+        def fingerprint = provider.fingerprint(fs.getPath('/bucket/data/file.txt'))
+        then:
+        fingerprint == "${'Hello world'.md5()}-11-${blob.lastModified.time}"
+        s3.count('getObject') == 0
+
+        when:
+        provider.fingerprint(fs.getPath('/bucket/data/missing.txt'))
+        then:
+        thrown(NoSuchFileException)
+
+        when:
+        provider.fingerprint(fs.getPath('/bucket/data'))
+        then:
+        thrown(IOException)
+    }
+
+    def 'should fingerprint a written object as when its metadata is not cached' () {
+        given:
+        def s3 = new InMemoryS3()
+        def fs = s3.newFileSystem()
+        def provider = (S3FileSystemProvider) fs.provider()
+        def file = fs.getPath('/bucket/data/file.txt')
+        def copy = fs.getPath('/bucket/data/copy.txt')
+
+        when:
+        Files.write(file, 'Hello world'.bytes)
+        Files.copy(file, copy)
+        // the server clock and precision differ from the local ones
+        s3.blob('bucket', 'data/file.txt').lastModified = new Date(1_500_000_000_000)
+        def written = provider.fingerprint(file)
+        def copied = provider.fingerprint(copy)
+        and:
+        fs.metadataCache.invalidateAll()
+        then:
+        written == "${'Hello world'.md5()}-11-1500000000000"
+        written == provider.fingerprint(file)
+        copied == provider.fingerprint(copy)
+    }
+
+    def 'should fingerprint many objects with directory listings' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<2500; i++ )
+            s3.put('bucket', "data/x/file-${i}.txt", "content ${i}")
+        s3.put('bucket', 'other/file.txt', 'Hola')
+        def fs = s3.newFileSystem(metadata_cache_enabled: 'false')
+        def provider = (S3FileSystemProvider) fs.provider()
+        def paths = (0..<2500).collect { fs.getPath("/bucket/data/x/file-${it}.txt") } + [fs.getPath('/bucket/other/file.txt')]
+
+        when:
+        def result = provider.fingerprints(paths)
+        then:
+        result.keySet() as List == paths
+        result.every { k, v -> v == provider.fingerprint(k) }
+        and:
+        s3.count('getObject') == 0
+
+        when:
+        s3.resetCounters()
+        provider.fingerprints(paths)
+        then:
+        s3.count('listObjectsV2') == 3
+        s3.count('getObjectMetadata') == 1
+    }
+}
@@ -0,0 +1,99 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.util.stream.Collectors
+
+import spock.lang.Specification
+
+class S3GlobListerTest extends Specification {
+
+    static InMemoryS3 runs() {
+        def s3 = new InMemoryS3()
+        for( int i=1; i<=3; i++ ) {
+            s3.put('bucket', "run42/sample_$i/reads_1.fq.gz", 'x')
+            s3.put('bucket', "run42/sample_$i/reads_2.fq.gz", 'x')
+            s3.put('bucket', "run42/sample_$i/report.html", 'x')
+            s3.put('bucket', "run42/sample_$i/logs/reads_log.txt", 'x')
+        }
+        for( int i=0; i<50; i++ )
+            s3.put('bucket', "run42/work/$i/data.txt", 'x')
+        s3.put('bucket', 'run42/sample_sheet.csv', 'x')
+        s3.put('bucket', 'run43/sample_1/reads_1.fq.gz', 'x')
+        return s3
+    }
+
+    def 'should match the paths with a glob or regex matcher' () {
+        given:
+        def fs = runs().newFileSystem()
+
+        expect:
+        fs.getPathMatcher('glob:/bucket/run42/sample_*/reads_*.fq.gz').matches(fs.getPath('/bucket/run42/sample_1/reads_2.fq.gz'))
+        !fs.getPathMatcher('glob:/bucket/run42/sample_*/reads_*.fq.gz').matches(fs.getPath('/bucket/run42/sample_1/logs/reads_log.txt'))
+        fs.getPathMatcher('glob:**/*.fq.gz').matches(fs.getPath('/bucket/run42/sample_1/reads_2.fq.gz'))
+        fs.getPathMatcher('regex:.*/sample_[0-9]+/.*').matches(fs.getPath('/bucket/run42/sample_1/reads_2.fq.gz'))
+
+        when:
+        fs.getPathMatcher('foo:*.txt')
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def 'should expand the groups containing a separator' () {
+        given:
+        def s3 = runs()
+        def fs = s3.newFileSystem()
+        def provider = (S3FileSystemProvider) fs.provider()
+
+        when:
+        def result = provider.glob(fs.getPath('/bucket'), '{run42/sample_1,run43/sample_*,run4*/sample_1}/reads_1.fq.gz')*.toString()
+        then:
+        result == [
+                '/bucket/run42/sample_1/reads_1.fq.gz',
+                '/bucket/run43/sample_1/reads_1.fq.gz' ]
+    }
+
+    def 'should list only the matching subtrees' () {
+        given:
+        def s3 = runs()
+        def fs = s3.newFileSystem()
+        def provider = (S3FileSystemProvider) fs.provider()
+
+        when:
+        def result = provider.glob(fs.getPath('/bucket'), 'run42/sample_*/reads_*.fq.gz')*.toString()
+        then:
+        result == [
+                '/bucket/run42/sample_1/reads_1.fq.gz',
+                '/bucket/run42/sample_1/reads_2.fq.gz',
+                '/bucket/run42/sample_2/reads_1.fq.gz',
+                '/bucket/run42/sample_2/reads_2.fq.gz',
+                '/bucket/run42/sample_3/reads_1.fq.gz',
+                '/bucket/run42/sample_3/reads_2.fq.gz' ]
+        and:
+        s3.listedPrefixes.sort() == ['run42/sample_', 'run42/sample_1/reads_', 'run42/sample_2/reads_', 'run42/sample_3/reads_']
+        s3.count('getObjectMetadata') == 0
+    }
+
+    def 'should return the same paths of the matcher' () {
+        given:
+        def s3 = runs()
+        def fs = s3.newFileSystem()
+        def provider = (S3FileSystemProvider) fs.provider()
+        def root = fs.getPath('/bucket')
+        def matcher = fs.getPathMatcher("glob:/bucket/$PATTERN")
+
+        when:
+        def expected = Files.walk(root).filter { matcher.matches(it) && (!it.toString().endsWith('/') ) }.map { it.toString() }.collect(Collectors.toSet())
+        def result = provider.glob(root, PATTERN)*.toString() as Set
+        then:
+        result == expected
+
+        where:
+        PATTERN << [
+                'run42/sample_*',
+                'run4?/sample_1/*.gz',
+                'run42/sample_{1,3}/report.html',
+                'run42/**/reads_*',
+                'run*/sample_[12]/reads_1.fq.gz',
+                'run42/sample_sheet.csv' ]
+    }
+}
@@ -0,0 +1,233 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+
+import spock.lang.Specification
+
+class S3IteratorTest extends Specification {
+
+    static InMemoryS3 tree() {
+        new InMemoryS3()
+                .put('bucket', 'data/a.txt', 'a')
+                .put('bucket', 'data/b.txt', 'bb')
+                .put('bucket', 'data/x/c.txt', 'ccc')
+                .put('bucket', 'data/x/y/d.txt', 'dddd')
+                .put('bucket', 'data/z/', '')
+    }
+
+    def 'should attach the attributes to the listed paths' () {
+        given:
+        def s3 = tree()
+        def fs = s3.newFileSystem()
+
+        when:
+        def paths = Files.newDirectoryStream(fs.getPath('/bucket/data')).collect()
+        then:
+        paths*.fileName*.toString().sort() == ['a.txt', 'b.txt', 'x', 'z']
+        and:
+        def attrs = paths.collectEntries { Path it -> [(it.fileName.toString()): Files.readAttributes(it, BasicFileAttributes)] }
+        attrs['a.txt'].regularFile
+        attrs['a.txt'].size() == 1
+        attrs['b.txt'].size() == 2
+        attrs['x'].directory
+        attrs['z'].directory
+        and:
+        // the directories are looked up to report the modified time of their first object
+        attrs['x'].lastModifiedTime().toMillis() == s3.blob('bucket', 'data/x/c.txt').lastModified.time
+        attrs['z'].lastModifiedTime().toMillis() == s3.blob('bucket', 'data/z/').lastModified.time
+        s3.count('getObjectMetadata') == 1
+        s3.count('listObjectsV2') == 2
+    }
+
+    def 'should walk a tree without looking up the listed files' () {
+        given:
+        def s3 = tree()
+        def fs = s3.newFileSystem()
+
+        when:
+        def files = Files.walk(fs.getPath('/bucket/data')).findAll { Files.isRegularFile(it) }.collect { it.toString() }
+        then:
+        files.sort() == ['/bucket/data/a.txt', '/bucket/data/b.txt', '/bucket/data/x/c.txt', '/bucket/data/x/y/d.txt']
+        s3.count('getObjectMetadata') == 3  // the walk root and the listed directories, whose modified time is not known
+        s3.count('listObjectsV2') == 7
+    }
+
+    def 'should not use the listing attributes of a modified path' () {
+        given:
+        def s3 = tree()
+        def fs = s3.newFileSystem()
+        def path = Files.newDirectoryStream(fs.getPath('/bucket/data')).find { it.fileName.toString() == 'a.txt' }
+
+        when:
+        Files.write(fs.getPath('/bucket/data/a.txt'), 'Hello'.bytes)
+        then:
+        Files.size(path) == 5
+    }
+
+    def 'should not use the listing attributes when disabled' () {
+        given:
+        def s3 = tree()
+        def fs = s3.newFileSystem(metadata_listing_ttl: '0', metadata_cache_enabled: 'false')
+        def path = Files.newDirectoryStream(fs.getPath('/bucket/data')).find { it.fileName.toString() == 'a.txt' }
+        s3.resetCounters()
+
+        when:
+        Files.size(path)
+        Files.size(path)
+        then:
+        s3.count('getObjectMetadata') == 2
+        s3.count('listObjectsV2') == 0
+    }
+
+    def 'should fetch the listing pages lazily' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<2500; i++ )
+            s3.put('bucket', String.format('data/file-%05d.txt', i), 'x')
+        def fs = s3.newFileSystem(listing_prefetch_depth: '0')
+
+        when:
+        def it = new S3Iterator(fs, 'bucket', 'data/')
+        then:
+        s3.count('listObjectsV2') == 0
+
+        when:
+        def first = it.next()
+        then:
+        first.fileName.toString() == 'file-00000.txt'
+        s3.count('listObjectsV2') == 1
+
+        when:
+        def count = 1
+        while( count < 1001 ) { it.next(); count++ }
+        then:
+        s3.count('listObjectsV2') == 2
+
+        when:
+        while( it.hasNext() ) { it.next(); count++ }
+        then:
+        count == 2500
+        s3.count('listObjectsV2') == 3
+    }
+
+    def 'should prefetch the next listing pages in background' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<5500; i++ )
+            s3.put('bucket', String.format('data/file-%05d.txt', i), 'x')
+        def fs = s3.newFileSystem(listing_prefetch_depth: DEPTH)
+
+        when:
+        def it = new S3Iterator(fs, 'bucket', 'data/')
+        it.next()
+        sleep 200
+        then:
+        s3.count('listObjectsV2') == REQUESTS
+
+        when:
+        def names = [] as Set
+        while( it.hasNext() ) names << it.next().fileName.toString()
+        then:
+        names.size() == 5499
+        s3.count('listObjectsV2') == 6
+
+        where:
+        DEPTH   | REQUESTS
+        '0'     | 1
+        '1'     | 2
+        '3'     | 4
+    }
+
+    def 'should overlap the page requests with the page processing' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<4000; i++ )
+            s3.put('bucket', String.format('data/file-%05d.txt', i), 'x')
+        def fs = s3.newFileSystem(listing_prefetch_depth: DEPTH)
+        s3.latency = 100
+
+        when:
+        def it = new S3Iterator(fs, 'bucket', 'data/')
+        def count = 0
+        def issued = []
+        while( it.hasNext() ) {
+            it.next()
+            // simulate the processing of each page, then check the requests issued in the meanwhile
+            if( ++count % 1000 == 0 ) {
+                sleep 100
+                issued << s3.count('listObjectsV2')
+            }
+        }
+        then:
+        count == 4000
+        issued == ISSUED
+
+        where:
+        DEPTH   | ISSUED
+        '0'     | [1, 2, 3, 4]
+        '1'     | [2, 3, 4, 4]
+    }
+
+    def 'should chain the listing pages by continuation token' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<2500; i++ )
+            s3.put('bucket', String.format('data/file-%05d.txt', i), 'x')
+        def fs = s3.newFileSystem(listing_page_size: '250', listing_prefetch_depth: '0')
+
+        when:
+        def names = new S3Iterator(fs, 'bucket', 'data/').collect { it.fileName.toString() }
+        then:
+        names.size() == 2500
+        names == names.toSorted()
+        s3.count('listObjectsV2') == 10
+        and:
+        def requests = s3.listRequests.toList()
+        requests.every { it.maxKeys == 250 && !it.fetchOwner && it.delimiter == '/' }
+        requests[0].startAfter == 'data/' && requests[0].continuationToken == null
+        requests[1..-1].every { it.continuationToken != null }
+        requests*.continuationToken.toSet().size() == 10
+    }
+
+    def 'should resume a listing after the specified key' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<2500; i++ )
+            s3.put('bucket', String.format('data/file-%05d.txt', i), 'x')
+        def fs = s3.newFileSystem()
+
+        when:
+        def names = new S3Iterator(fs, 'bucket', 'data/', 'data/file-01999.txt', null, 0).collect { it.fileName.toString() }
+        then:
+        names.size() == 500
+        names.first() == 'file-02000.txt'
+        s3.count('listObjectsV2') == 1
+        s3.listRequests.peek().startAfter == 'data/file-01999.txt'
+    }
+
+    def 'should list with fewer round trips using larger pages' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<3000; i++ )
+            s3.put('bucket', String.format('data/file-%05d.txt', i), 'x')
+        s3.latency = 10
+
+        when:
+        def fs = s3.newFileSystem(listing_page_size: SIZE, listing_prefetch_depth: '0')
+        def start = System.currentTimeMillis()
+        def count = new S3Iterator(fs, 'bucket', 'data/').size()
+        def elapsed = System.currentTimeMillis() - start
+        then:
+        count == 3000
+        s3.count('listObjectsV2') == REQUESTS
+        elapsed >= MIN && elapsed < MAX
+
+        where:
+        SIZE    | REQUESTS  | MIN   | MAX
+        '1000'  | 3         | 30    | 250
+        '100'   | 30        | 300   | 2000
+        '5000'  | 3         | 30    | 250
+    }
+}
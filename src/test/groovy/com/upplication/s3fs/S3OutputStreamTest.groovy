@@ -0,0 +1,107 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardOpenOption
+
+import com.upplication.s3fs.util.S3MultipartOptions
+import spock.lang.Specification
+
+class S3OutputStreamTest extends Specification {
+
+    def 'should append by copying the existing object server-side' () {
+        given:
+        def EXISTING = new byte[S3MultipartOptions.MIN_PART_SIZE + 10]
+        new Random().nextBytes(EXISTING)
+        def s3 = new InMemoryS3().put('bucket', 'logs/app.log', EXISTING)
+        def fs = s3.newFileSystem()
+        def path = fs.getPath('/bucket/logs/app.log')
+
+        when:
+        def stream = Files.newOutputStream(path, StandardOpenOption.APPEND)
+        stream.write('Hello world'.bytes)
+        stream.close()
+        then:
+        s3.count('getObject') == 0
+        s3.count('putObject') == 0
+        s3.count('copyPart') == 1
+        s3.count('uploadPart') == 1
+        s3.count('completeMultipartUpload') == 1
+        and:
+        def expected = new ByteArrayOutputStream()
+        expected.write(EXISTING)
+        expected.write('Hello world'.bytes)
+        Arrays.equals(s3.data('bucket', 'logs/app.log'), expected.toByteArray())
+    }
+
+    def 'should report the object modified while appending' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'logs/app.log', new byte[S3MultipartOptions.MIN_PART_SIZE])
+        def fs = s3.newFileSystem()
+        def path = fs.getPath('/bucket/logs/app.log')
+
+        when:
+        def stream = Files.newOutputStream(path, StandardOpenOption.APPEND)
+        s3.put('bucket', 'logs/app.log', 'Replaced')
+        stream.write('Hello world'.bytes)
+        stream.close()
+        then:
+        def e = thrown(IOException)
+        e.cause.message.contains('modified while appending')
+        and:
+        s3.count('copyPart') == 1
+        s3.count('completeMultipartUpload') == 0
+        new String(s3.data('bucket', 'logs/app.log')) == 'Replaced'
+
+        when:
+        stream.write('More'.bytes)
+        then:
+        thrown(IOException)
+    }
+
+    def 'should not modify the object when nothing is appended' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'logs/app.log', new byte[S3MultipartOptions.MIN_PART_SIZE])
+        def fs = s3.newFileSystem()
+
+        when:
+        Files.newOutputStream(fs.getPath('/bucket/logs/app.log'), StandardOpenOption.APPEND).close()
+        then:
+        s3.count('initiateMultipartUpload') == 0
+        s3.count('putObject') == 0
+    }
+
+    def 'should append to a small object' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'logs/app.log', 'Hello')
+        def fs = s3.newFileSystem()
+        def path = fs.getPath('/bucket/logs/app.log')
+
+        when:
+        def stream = Files.newOutputStream(path, StandardOpenOption.APPEND)
+        stream.write(' world'.bytes)
+        stream.close()
+        then:
+        s3.count('copyPart') == 0
+        s3.count('putObject') == 1
+        new String(s3.data('bucket', 'logs/app.log')) == 'Hello world'
+    }
+
+    def 'should create or fail appending a missing object' () {
+        given:
+        def s3 = new InMemoryS3()
+        def fs = s3.newFileSystem()
+
+        when:
+        def stream = Files.newOutputStream(fs.getPath('/bucket/logs/new.log'), StandardOpenOption.APPEND, StandardOpenOption.CREATE)
+        stream.write('Hello'.bytes)
+        stream.close()
+        then:
+        new String(s3.data('bucket', 'logs/new.log')) == 'Hello'
+
+        when:
+        Files.newOutputStream(fs.getPath('/bucket/logs/missing.log'), StandardOpenOption.APPEND)
+        then:
+        thrown(NoSuchFileException)
+    }
+}
@@ -0,0 +1,96 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+import java.util.function.Consumer
+import java.util.stream.Collectors
+
+import spock.lang.Specification
+
+class S3PageSpliteratorTest extends Specification {
+
+    static InMemoryS3 files(int count) {
+        def s3 = new InMemoryS3()
+        def chars = S3PartitionedIterator.KEY_ALPHABET
+        for( int i=0; i<count; i++ )
+            s3.put('bucket', "data/${chars[i % chars.length()]}${i}.txt", 'x')
+        return s3
+    }
+
+    def 'should split by listing pages' () {
+        given:
+        def s3 = files(2500)
+        def fs = s3.newFileSystem()
+        def spliterator = new S3PageSpliterator(fs, 'bucket', 'data/', [], 1)
+
+        when:
+        def first = spliterator.trySplit()
+        then:
+        first.estimateSize() == 1000
+        first.hasCharacteristics(Spliterator.ORDERED)
+
+        when:
+        def second = spliterator.trySplit()
+        def third = spliterator.trySplit()
+        then:
+        second.estimateSize() == 1000
+        third.estimateSize() == 500
+        spliterator.trySplit() == null
+        !spliterator.tryAdvance({} as Consumer)
+        s3.count('listObjectsV2') == 3
+    }
+
+    def 'should split by key ranges' () {
+        given:
+        def s3 = files(2500)
+        def fs = s3.newFileSystem()
+        def spliterator = new S3PageSpliterator(fs, 'bucket', 'data/', S3PartitionedIterator.alphabetSplit('data/', 4), 1)
+
+        when:
+        def prefix = spliterator.trySplit()
+        def names = []
+        prefix.forEachRemaining({ Path it -> names << it.toString() } as Consumer)
+        spliterator.forEachRemaining({ Path it -> names << it.toString() } as Consumer)
+        then:
+        names.size() == 2500
+        names == names.toSorted()
+        s3.count('listObjectsV2') == 4
+    }
+
+    def 'should list the directory as a parallel stream' () {
+        given:
+        def fs = files(5000).newFileSystem()
+        def provider = (S3FileSystemProvider) fs.provider()
+        def dir = fs.getPath('/bucket/data')
+
+        when:
+        def expected = Files.list(dir).map { it.toString() }.collect(Collectors.toList())
+        def result = provider.list(dir, PARTITIONS).parallel().map { it.toString() }.collect(Collectors.toList())
+        then:
+        result.size() == 5000
+        result as Set == expected as Set
+        result == result.toSorted()
+
+        where:
+        PARTITIONS << [1, 8]
+    }
+
+    def 'should process the entries while the listing is in progress' () {
+        given:
+        def s3 = files(3000)
+        def fs = s3.newFileSystem()
+        def provider = (S3FileSystemProvider) fs.provider()
+        s3.latency = 200
+        // the number of listing requests completed when each entry is processed
+        def processed = new ConcurrentHashMap<String,Integer>()
+
+        when:
+        provider.list(fs.getPath('/bucket/data')).parallel().forEach { processed.put(it.toString(), s3.listRequests.size()) }
+        then:
+        processed.size() == 3000
+        s3.listRequests.size() == 3
+        // the first page is processed before the last one has been received
+        processed.values().min() < 3
+    }
+}
@@ -0,0 +1,103 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+
+import spock.lang.Specification
+
+class S3PartitionedIteratorTest extends Specification {
+
+    def 'should split by the key alphabet' () {
+        expect:
+        S3PartitionedIterator.alphabetSplit('data/', 1) == []
+        S3PartitionedIterator.alphabetSplit('data/', 2) == ['data/S']
+        S3PartitionedIterator.alphabetSplit('data/', 4) == ['data/A', 'data/S', 'data/i']
+        S3PartitionedIterator.alphabetSplit('/', 2) == ['S']
+        S3PartitionedIterator.alphabetSplit('data/', 1000).size() == S3PartitionedIterator.KEY_ALPHABET.length()-1
+    }
+
+    def 'should split by the sampled keys' () {
+        given:
+        def sample = ['data/a.txt', 'data/b.txt', 'data/c/1.txt', 'data/c/2.txt', 'data/c/3.txt', 'data/d.txt']
+
+        expect:
+        S3PartitionedIterator.sampleSplit('data/', sample, 1) == []
+        S3PartitionedIterator.sampleSplit('data/', sample, 2) == ['data/c']
+        S3PartitionedIterator.sampleSplit('data/', sample, 3) == ['data/c']
+        S3PartitionedIterator.sampleSplit('data/', sample, 6) == ['data/b.txt', 'data/c', 'data/d.txt']
+        S3PartitionedIterator.sampleSplit('data/', [], 4) == []
+    }
+
+    def 'should return the same entries of a plain listing' () {
+        given:
+        def s3 = new InMemoryS3()
+        def chars = S3PartitionedIterator.KEY_ALPHABET
+        for( int i=0; i<3000; i++ )
+            s3.put('bucket', "data/${chars[i % chars.length()]}${i}.txt", 'x')
+        s3.put('bucket', 'data/S', 'x')
+        s3.put('bucket', 'data/S/foo.txt', 'x')
+        s3.put('bucket', 'data/S/bar/baz.txt', 'x')
+        s3.put('bucket', 'data/b/foo.txt', 'x')
+        def fs = s3.newFileSystem()
+        def dir = fs.getPath('/bucket/data')
+
+        when:
+        def expected = Files.newDirectoryStream(dir).collect { it.toString() }
+        def result = fs.provider().newPartitionedDirectoryStream(dir, PARTITIONS).collect { it.toString() }
+        then:
+        expected.size() == 3003
+        result.size() == expected.size()
+        result as Set == expected as Set
+
+        when:
+        def sample = expected.collect { it.substring('/bucket/'.length()) }.sort()
+        result = fs.provider().newPartitionedDirectoryStream(dir, sample, PARTITIONS).collect { it.toString() }
+        then:
+        result.size() == expected.size()
+        result as Set == expected as Set
+
+        where:
+        PARTITIONS << [1, 4, 16]
+    }
+
+    def 'should return the entries in lexical order' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<2500; i++ )
+            s3.put('bucket', String.format('data/%s-%05d.txt', i % 2 ? 'foo' : 'bar', i), 'x')
+        def fs = s3.newFileSystem()
+        def dir = fs.getPath('/bucket/data')
+
+        when:
+        def it = new S3PartitionedIterator(fs, 'bucket', 'data/', S3PartitionedIterator.alphabetSplit('data/', 8), 2)
+        def result = it.collect { it.fileName.toString() }
+        then:
+        it.rangeCount == 8
+        result.size() == 2500
+        result == result.toSorted()
+    }
+
+    def 'should list the key ranges concurrently' () {
+        given:
+        def s3 = new InMemoryS3()
+        def chars = S3PartitionedIterator.KEY_ALPHABET
+        for( int i=0; i<8000; i++ )
+            s3.put('bucket', "data/${chars[i % chars.length()]}${i}.txt", 'x')
+        def fs = s3.newFileSystem(listing_prefetch_depth: '0')
+        def dir = fs.getPath('/bucket/data')
+        s3.latency = 100
+
+        when:
+        def start = System.currentTimeMillis()
+        def count = Files.newDirectoryStream(dir).collect().size()
+        def sequential = System.currentTimeMillis() - start
+        and:
+        start = System.currentTimeMillis()
+        def count2 = fs.provider().newPartitionedDirectoryStream(dir, 16).collect().size()
+        def partitioned = System.currentTimeMillis() - start
+        then:
+        count == 8000
+        count2 == 8000
+        sequential >= 800
+        partitioned < sequential / 2
+    }
+}
@@ -0,0 +1,217 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import com.upplication.s3fs.util.S3ScanCheckpoint
+import spock.lang.Specification
+
+class S3ScannerTest extends Specification {
+
+    static InMemoryS3 tree(int count) {
+        def s3 = new InMemoryS3()
+        def chars = S3PartitionedIterator.KEY_ALPHABET
+        for( int i=0; i<count; i++ )
+            s3.put('bucket', "data/${chars[i % chars.length()]}/file-${String.format('%05d',i)}.txt", 'x')
+        s3.put('bucket', 'data/S/', '')
+        s3.put('bucket', 'other/file.txt', 'x')
+        return s3
+    }
+
+    static List<String> keys(InMemoryS3 s3) {
+        s3.buckets['bucket'].keySet().findAll { it.startsWith('data/') }.toList()
+    }
+
+    def 'should save and load a checkpoint' () {
+        given:
+        def file = Files.createTempDirectory('test').resolve('scan.properties')
+        def checkpoint = new S3ScanCheckpoint('bucket', 'data/', ['data/M', 'data/m'])
+        checkpoint.processed(0, 'data/A/file.txt')
+        checkpoint.processed(0, 'data/B/file.txt')
+        checkpoint.done(2)
+
+        when:
+        checkpoint.save(file)
+        def result = S3ScanCheckpoint.load(file)
+        then:
+        Files.list(file.parent).collect { it.fileName.toString() } == ['scan.properties']
+        result.bucket == 'bucket'
+        result.prefix == 'data/'
+        result.count == 2
+        !result.done
+        result.ranges*.startAfter == [null, 'data/M', 'data/m']
+        result.ranges*.endAt == ['data/M', 'data/m', null]
+        result.ranges*.resumeAfter == ['data/B/file.txt', 'data/M', 'data/m']
+        result.ranges*.count == [2, 0, 0]
+        result.ranges*.done == [false, false, true]
+
+        cleanup:
+        file?.parent?.deleteDir()
+    }
+
+    def 'should scan all the keys under the directory' () {
+        given:
+        def s3 = tree(3000)
+        def fs = s3.newFileSystem()
+        def file = Files.createTempDirectory('test').resolve('scan.properties')
+        def visited = new ConcurrentLinkedQueue<String>()
+
+        when:
+        def count = fs.provider().scan(fs.getPath('/bucket/data'), file, PARTITIONS, { S3Path path -> visited << path.fetchObjectSummary().key } as S3Scanner.Visitor)
+        then:
+        count == 3001
+        visited.toList().sort() == keys(s3).sort()
+        and:
+        def checkpoint = S3ScanCheckpoint.load(file)
+        checkpoint.done
+        checkpoint.count == 3001
+        checkpoint.ranges.size() == PARTITIONS
+
+        when:
+        count = fs.provider().scan(fs.getPath('/bucket/data'), file, PARTITIONS, { S3Path path -> visited << path.toString() } as S3Scanner.Visitor)
+        then:
+        count == 0
+        visited.size() == 3001
+
+        cleanup:
+        file?.parent?.deleteDir()
+
+        where:
+        PARTITIONS << [1, 4]
+    }
+
+    def 'should resume a failed scan without visiting again the processed keys' () {
+        given:
+        def s3 = tree(3000)
+        def fs = s3.newFileSystem(listing_page_size: '100')
+        def dir = (S3Path) fs.getPath('/bucket/data')
+        def file = Files.createTempDirectory('test').resolve('scan.properties')
+        def boundaries = S3PartitionedIterator.alphabetSplit('data/', PARTITIONS)
+        def first = new ConcurrentLinkedQueue<String>()
+        def second = new ConcurrentLinkedQueue<String>()
+
+        when:
+        def scanner = new S3Scanner(dir, file, boundaries)
+        scanner.setCheckpointInterval(INTERVAL)
+        scanner.scan({ S3Path path ->
+            def key = path.fetchObjectSummary().key
+            if( key.endsWith('file-01500.txt') )
+                throw new IOException('Visit failed')
+            first << key
+        } as S3Scanner.Visitor)
+        then:
+        def e = thrown(IOException)
+        e.message == 'Visit failed'
+        and:
+        def checkpoint = S3ScanCheckpoint.load(file)
+        !checkpoint.done
+        checkpoint.count == first.size()
+
+        when:
+        scanner = new S3Scanner(dir, file, [])
+        def count = scanner.scan({ S3Path path -> second << path.fetchObjectSummary().key } as S3Scanner.Visitor)
+        then:
+        count == second.size()
+        scanner.checkpoint.ranges.size() == PARTITIONS
+        scanner.checkpoint.done
+        (first + second).sort() == keys(s3).sort()
+
+        cleanup:
+        file?.parent?.deleteDir()
+
+        where:
+        PARTITIONS  | INTERVAL
+        1           | 1
+        4           | 1
+        4           | 1000
+    }
+
+    def 'should stop all the ranges when one fails and resume with the same scanner' () {
+        given:
+        def s3 = tree(1000)
+        def fs = s3.newFileSystem(listing_page_size: '100')
+        def dir = (S3Path) fs.getPath('/bucket/data')
+        def file = Files.createTempDirectory('test').resolve('scan.properties')
+        def boundaries = S3PartitionedIterator.alphabetSplit('data/', 2)
+        def first = new ConcurrentLinkedQueue<String>()
+        def second = new ConcurrentLinkedQueue<String>()
+        def scanner = new S3Scanner(dir, file, boundaries)
+
+        when:
+        // the last range fails at once while the first one is slowly visited
+        scanner.scan({ S3Path path ->
+            def key = path.fetchObjectSummary().key
+            if( key > boundaries[0] )
+                throw new IOException('Visit failed')
+            sleep 5
+            first << key
+        } as S3Scanner.Visitor)
+        then:
+        thrown(IOException)
+        first.size() < 100
+
+        when:
+        def count = scanner.scan({ S3Path path -> second << path.fetchObjectSummary().key } as S3Scanner.Visitor)
+        then:
+        count == second.size()
+        scanner.checkpoint.done
+        (first + second).sort() == keys(s3).sort()
+
+        cleanup:
+        file?.parent?.deleteDir()
+    }
+
+    def 'should resume a crashed scan from the last saved checkpoint' () {
+        given:
+        def s3 = tree(3000)
+        def fs = s3.newFileSystem(listing_page_size: '100')
+        def dir = (S3Path) fs.getPath('/bucket/data')
+        def file = Files.createTempDirectory('test').resolve('scan.properties')
+        def crashed = file.resolveSibling('crashed.properties')
+        def first = []
+        def second = []
+
+        when:
+        def scanner = new S3Scanner(dir, file, [])
+        scanner.setCheckpointInterval(INTERVAL)
+        scanner.scan({ S3Path path ->
+            def key = path.fetchObjectSummary().key
+            // keep the checkpoint as it would be found after the process is killed
+            if( key.endsWith('file-01500.txt') )
+                Files.copy(file, crashed)
+            if( !Files.exists(crashed) )
+                first << key
+        } as S3Scanner.Visitor)
+        and:
+        def saved = S3ScanCheckpoint.load(crashed).count
+        new S3Scanner(dir, crashed, []).scan({ S3Path path -> second << path.fetchObjectSummary().key } as S3Scanner.Visitor)
+        then:
+        saved == first.size().intdiv(INTERVAL) * INTERVAL
+        (first + second).toSet() == keys(s3).toSet()
+        // only the keys visited after the last save are visited again
+        first.size() + second.size() - keys(s3).size() == first.size() - saved
+
+        cleanup:
+        file?.parent?.deleteDir()
+
+        where:
+        INTERVAL << [10, 500]
+    }
+
+    def 'should not resume the checkpoint of another directory' () {
+        given:
+        def s3 = tree(10)
+        def fs = s3.newFileSystem()
+        def file = Files.createTempDirectory('test').resolve('scan.properties')
+        new S3ScanCheckpoint('bucket', 'other/', []).save(file)
+
+        when:
+        fs.provider().scan(fs.getPath('/bucket/data'), file, 1, { S3Path path -> } as S3Scanner.Visitor)
+        then:
+        thrown(IllegalArgumentException)
+
+        cleanup:
+        file?.parent?.deleteDir()
+    }
+}
@@ -0,0 +1,96 @@
+package com.upplication.s3fs
+
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.stream.Collectors
+
+import spock.lang.Specification
+
+class S3WalkIteratorTest extends Specification {
+
+    static InMemoryS3 tree() {
+        new InMemoryS3()
+                .put('bucket', 'data/a.txt', 'a')
+                .put('bucket', 'data/a-b.txt', 'ab')
+                .put('bucket', 'data/b.txt', 'bb')
+                .put('bucket', 'data/x/c.txt', 'ccc')
+                .put('bucket', 'data/x/y/d.txt', 'dddd')
+                .put('bucket', 'data/x/y/z/e.txt', 'eeeee')
+                .put('bucket', 'data/x0.txt', 'x')
+                .put('bucket', 'data/z/', '')
+                .put('bucket', 'other/f.txt', 'f')
+    }
+
+    static List<String> walk(S3FileSystem fs, String path, int depth) {
+        ((S3FileSystemProvider) fs.provider()).walk(fs.getPath(path), depth).map { it.toString() }.collect(Collectors.toList())
+    }
+
+    def 'should walk the same paths of files walk' () {
+        given:
+        def fs = tree().newFileSystem()
+
+        when:
+        def expected = Files.walk(fs.getPath('/bucket/data'), DEPTH).map { it.toString() }.collect(Collectors.toList())
+        def result = walk(fs, '/bucket/data', DEPTH)
+        then:
+        result[0] == '/bucket/data'
+        result.toSorted() == expected.toSorted()
+        and:
+        // every path is preceded by its parent directory
+        result.drop(1).every { String it -> result.indexOf(it.substring(0, it.lastIndexOf('/'))) < result.indexOf(it) }
+
+        where:
+        DEPTH << [0, 1, 2, 3, Integer.MAX_VALUE]
+    }
+
+    def 'should walk a tree with a single listing request' () {
+        given:
+        def s3 = tree()
+        def fs = s3.newFileSystem()
+
+        when:
+        def result = ((S3FileSystemProvider) fs.provider()).walk(fs.getPath('/bucket/data'), Integer.MAX_VALUE).collect(Collectors.toList())
+        then:
+        result*.toString() == [
+                '/bucket/data',
+                '/bucket/data/a-b.txt',
+                '/bucket/data/a.txt',
+                '/bucket/data/b.txt',
+                '/bucket/data/x',
+                '/bucket/data/x/c.txt',
+                '/bucket/data/x/y',
+                '/bucket/data/x/y/d.txt',
+                '/bucket/data/x/y/z',
+                '/bucket/data/x/y/z/e.txt',
+                '/bucket/data/x0.txt',
+                '/bucket/data/z' ]
+        and:
+        def attrs = result.collectEntries { Path it -> [(it.toString()): Files.readAttributes(it, BasicFileAttributes)] }
+        attrs['/bucket/data/x/y'].directory
+        attrs['/bucket/data/z'].directory
+        attrs['/bucket/data/x/y/z/e.txt'].size() == 5
+        and:
+        // the directories report the modified time of their first object
+        attrs['/bucket/data'].lastModifiedTime().toMillis() == s3.blob('bucket', 'data/a-b.txt').lastModified.time
+        attrs['/bucket/data/x/y'].lastModifiedTime().toMillis() == s3.blob('bucket', 'data/x/y/d.txt').lastModified.time
+        and:
+        s3.count('listObjectsV2') == 1
+        s3.count('getObjectMetadata') == 0
+    }
+
+    def 'should walk a file or a missing path' () {
+        given:
+        def fs = tree().newFileSystem()
+
+        expect:
+        walk(fs, '/bucket/data/a.txt', 10) == ['/bucket/data/a.txt']
+        walk(fs, '/bucket/data/z', 10) == ['/bucket/data/z']
+
+        when:
+        walk(fs, '/bucket/missing', 10)
+        then:
+        thrown(NoSuchFileException)
+    }
+}
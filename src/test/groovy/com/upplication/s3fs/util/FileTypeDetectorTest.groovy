@@ -0,0 +1,59 @@
+package com.upplication.s3fs.util
+
+import spock.lang.Specification
+
+class FileTypeDetectorTest extends Specification {
+
+    def 'should detect content type by file extension' () {
+        expect:
+        FileTypeDetector.detect(NAME) == TYPE
+
+        where:
+        NAME            | TYPE
+        'hello.txt'     | 'text/plain'
+        'HELLO.TXT'     | 'text/plain'
+        'index.html'    | 'text/html'
+        'data.json'     | 'application/json'
+        'hello'         | null
+        'hello.'        | null
+        '.bashrc'       | null
+    }
+
+    def 'should distinguish the multi-part extensions' () {
+        expect:
+        // the first name detected for an extension does not decide the type of the others
+        FileTypeDetector.detect(FIRST) == FIRST_TYPE
+        FileTypeDetector.detect(SECOND) == SECOND_TYPE
+
+        where:
+        FIRST           | FIRST_TYPE        | SECOND            | SECOND_TYPE
+        'notes.txt'     | 'text/plain'      | 'manual.adoc.txt' | 'text/x-asciidoc'
+        'guide.ad.txt'  | 'text/x-asciidoc' | 'readme.txt'      | 'text/plain'
+    }
+
+    def 'should detect content type from the stream prefix and reset it' () {
+        given:
+        def content = '%PDF-1.4\n' + ('x' * 100_000)
+        def stream = new BufferedInputStream(new ByteArrayInputStream(content.bytes))
+
+        when:
+        def type = FileTypeDetector.detect(stream, 'document')
+        then:
+        type == 'application/pdf'
+        and:
+        stream.text == content
+    }
+
+    def 'should not read the stream when the extension is known' () {
+        given:
+        def stream = Mock(InputStream)
+
+        when:
+        def type = FileTypeDetector.detect(stream, 'file.csv')
+        then:
+        1 * stream.markSupported() >> true
+        0 * stream.read(*_)
+        0 * stream.read()
+        type == 'text/csv'
+    }
+}
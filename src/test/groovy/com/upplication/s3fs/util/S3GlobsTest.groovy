@@ -0,0 +1,70 @@
+package com.upplication.s3fs.util
+
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class S3GlobsTest extends Specification {
+
+    @Unroll
+    def 'should match #GLOB with #NAME' () {
+        expect:
+        Pattern.compile(S3Globs.toRegex(GLOB)).matcher(NAME).matches() == EXPECTED
+
+        where:
+        GLOB                | NAME                  | EXPECTED
+        '*.txt'             | 'file.txt'            | true
+        '*.txt'             | 'dir/file.txt'        | false
+        '**/*.txt'          | 'dir/sub/file.txt'    | true
+        'file?.txt'         | 'file1.txt'           | true
+        'file?.txt'         | 'file12.txt'          | false
+        'file[0-9].txt'     | 'file7.txt'           | true
+        'file[!0-9].txt'    | 'file7.txt'           | false
+        'file[!0-9].txt'    | 'fileX.txt'           | true
+        '*.{fq,fastq}.gz'   | 'reads.fastq.gz'      | true
+        '*.{fq,fastq}.gz'   | 'reads.bam'           | false
+        'a+b(1).txt'        | 'a+b(1).txt'          | true
+        'a\\*.txt'          | 'a*.txt'              | true
+        'a\\*.txt'          | 'ab.txt'              | false
+    }
+
+    def 'should reject invalid patterns' () {
+        when:
+        S3Globs.toRegex(GLOB)
+        then:
+        thrown(PatternSyntaxException)
+
+        where:
+        GLOB << ['file[0-9', '*.{fq,fastq', 'foo\\', '{a,{b,c}}']
+    }
+
+    def 'should find the literal prefix' () {
+        expect:
+        S3Globs.literalPrefix('sample_*') == 'sample_'
+        S3Globs.literalPrefix('reads_?.fq') == 'reads_'
+        S3Globs.literalPrefix('{a,b}.txt') == ''
+        S3Globs.literalPrefix('file.txt') == 'file.txt'
+        S3Globs.literalPrefix('a\\*b*') == 'a*b'
+        and:
+        S3Globs.hasWildcards('sample_*')
+        !S3Globs.hasWildcards('file.txt')
+    }
+
+    def 'should split the pattern segments' () {
+        expect:
+        S3Globs.segments('run42/sample_*/reads_*.fq.gz') == ['run42', 'sample_*', 'reads_*.fq.gz']
+        S3Globs.segments('/a//b/') == ['a', 'b']
+        S3Globs.segments('{a/b,c}/*.txt') == ['{a/b,c}', '*.txt']
+    }
+
+    def 'should expand the groups containing a separator' () {
+        expect:
+        S3Globs.expandGroups('{a/b,c}/*.txt') == ['a/b/*.txt', 'c/*.txt']
+        S3Globs.expandGroups('{a,b}/{c/d,e}/{f,g/h}') == ['{a,b}/c/d/f', '{a,b}/c/d/g/h', '{a,b}/e/f', '{a,b}/e/g/h']
+        S3Globs.expandGroups('{a,b}/*.txt') == ['{a,b}/*.txt']
+        S3Globs.expandGroups('[{]a/b,c}') == ['[{]a/b,c}']
+        S3Globs.expandGroups('\\{a/b,c}') == ['\\{a/b,c}']
+    }
+}
@@ -0,0 +1,253 @@
+package com.upplication.s3fs.util
+
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.zip.GZIPOutputStream
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request
+import com.amazonaws.util.DateUtils
+import com.upplication.s3fs.AmazonS3Client
+import com.upplication.s3fs.InMemoryS3
+import com.upplication.s3fs.S3ListingSource
+import spock.lang.Specification
+
+class S3InventoryTest extends Specification {
+
+    static final String SCHEMA = 'Bucket, Key, VersionId, IsLatest, IsDeleteMarker, Size, LastModifiedDate, ETag, StorageClass'
+
+    static InMemoryS3 tree() {
+        def s3 = new InMemoryS3()
+        for( int i=0; i<50; i++ )
+            s3.put('bucket', String.format('data/file-%03d.txt', i), 'x' * i)
+        for( int i=0; i<30; i++ )
+            s3.put('bucket', String.format('data/dir-%02d/sub/file.txt', i), 'y')
+        s3.put('bucket', 'data/my file.txt', 'spaces')
+        s3.put('bucket', 'data/a+b.txt', 'plus')
+        s3.put('bucket', 'data/empty/', '')
+        s3.put('bucket', 'other.txt', 'z')
+        return s3
+    }
+
+    static byte[] gzip(String text) {
+        def buffer = new ByteArrayOutputStream()
+        new GZIPOutputStream(buffer).withWriter('UTF-8') { it << text }
+        return buffer.toByteArray()
+    }
+
+    static String row(List values) {
+        values.collect { '"' + (it == null ? '' : it.toString().replace('"', '""')) + '"' }.join(',')
+    }
+
+    /*
+     * writes an inventory report of the current content of the source bucket
+     */
+    static void report(InMemoryS3 s3, String folder, Date created, String format='CSV') {
+        def rows = s3.buckets['bucket'].collect { key, blob ->
+            row(['bucket', URLEncoder.encode(key, 'UTF-8'), 'v1', 'true', 'false', blob.data.length, DateUtils.formatISO8601Date(blob.lastModified), blob.etag, blob.storageClass])
+        }
+        // a previous version and a deleted object
+        rows << row(['bucket', 'data/file-001.txt', 'v0', 'false', 'false', 999, DateUtils.formatISO8601Date(new Date(0)), 'old', 'STANDARD'])
+        rows << row(['bucket', 'data/deleted.txt', 'v2', 'true', 'true', '', DateUtils.formatISO8601Date(new Date(0)), '', ''])
+        def half = rows.size().intdiv(2)
+        def prefix = "inventory/bucket/daily/$folder"
+        s3.put('inventory', "$prefix/data/part-0.csv.gz", gzip(rows[0..<half].join('\n') + '\n'))
+        s3.put('inventory', "$prefix/data/part-1.csv.gz", gzip(rows[half..-1].join('\n') + '\n'))
+        s3.put('inventory', "$prefix/manifest.json", """{
+            "sourceBucket": "bucket",
+            "destinationBucket": "arn:aws:s3:::inventory",
+            "version": "2016-11-30",
+            "creationTimestamp": "${created.time}",
+            "fileFormat": "$format",
+            "fileSchema": "$SCHEMA",
+            "files": [
+                { "key": "$prefix/data/part-0.csv.gz", "size": 1, "MD5checksum": "x" },
+                { "key": "$prefix/data/part-1.csv.gz", "size": 1, "MD5checksum": "x" }
+            ]
+        }""")
+    }
+
+    static List<List<String>> pages(S3ListingSource source, ListObjectsV2Request request) {
+        def result = []
+        def page = source.listObjectsV2(request)
+        while( true ) {
+            result << page.objectSummaries.collect { "$it.key:$it.size:$it.ETag".toString() } + page.commonPrefixes
+            if( !page.truncated )
+                return result
+            page = source.listNextBatchOfObjectsV2(page)
+        }
+    }
+
+    def 'should answer the listing requests as the live listing' () {
+        given:
+        def s3 = tree()
+        // the in-memory listing returns the directory placeholders as objects instead of common prefixes
+        s3.buckets['bucket'].remove('data/empty/')
+        report(s3, '2020-01-01T00-00Z', new Date())
+        def client = new AmazonS3Client(s3)
+        def snapshot = S3InventorySnapshot.load(client, 'inventory', 'inventory/bucket/daily/2020-01-01T00-00Z/manifest.json', [])
+
+        expect:
+        snapshot.bucket == 'bucket'
+        snapshot.size() == s3.buckets['bucket'].size()
+        snapshot.lookup('data/file-001.txt').size == 1
+        snapshot.lookup('data/my file.txt').size == 6
+        snapshot.lookup('data/dir-00').key == 'data/dir-00/sub/file.txt'
+        snapshot.lookup('data/deleted.txt') == null
+        snapshot.lookup('data/missing') == null
+        and:
+        def request = new ListObjectsV2Request().withBucketName('bucket').withPrefix(PREFIX).withDelimiter(DELIMITER).withMaxKeys(MAX).withStartAfter(AFTER)
+        pages(snapshot, request.clone()) == pages(client, request.clone())
+
+        where:
+        PREFIX          | DELIMITER | MAX   | AFTER
+        'data/'         | '/'       | 1000  | null
+        'data/'         | '/'       | 7     | 'data/'
+        'data/'         | null      | 9     | null
+        'data/dir-'     | '/'       | 4     | null
+        ''              | '/'       | 2     | null
+        'data/'         | '/'       | 5     | 'data/dir-10'
+        'data/'         | null      | 10    | 'data/file-025.txt'
+        'missing/'      | '/'       | 10    | null
+    }
+
+    def 'should list and walk the file system from the latest inventory' () {
+        given:
+        def s3 = tree()
+        report(s3, '2020-01-01T00-00Z', new Date(System.currentTimeMillis() - 10_000))
+        report(s3, '2020-01-02T00-00Z', new Date())
+        // changes after the report are not visible
+        s3.put('bucket', 'data/new.txt', 'new')
+        def fs = s3.newFileSystem(inventory_manifest: 's3://inventory/inventory/bucket/daily/')
+        def dir = fs.getPath('/bucket/data')
+
+        when:
+        def entries = Files.newDirectoryStream(dir).collect { it.fileName.toString() }
+        def walked = Files.walk(dir).collect { it.toString() }
+        def attrs = Files.readAttributes(fs.getPath('/bucket/data/file-010.txt'), BasicFileAttributes)
+        def dirAttrs = Files.readAttributes(fs.getPath('/bucket/data/dir-01'), BasicFileAttributes)
+        then:
+        fs.inventory.getSnapshot('bucket').manifest == 's3://inventory/inventory/bucket/daily/2020-01-02T00-00Z/manifest.json'
+        entries.size() == 83
+        entries.contains('my file.txt') && entries.contains('a+b.txt') && entries.contains('dir-29') && entries.contains('empty')
+        !entries.contains('new.txt') && !entries.contains('deleted.txt')
+        walked.size() == 1 + 83 + 30 * 2
+        walked.contains('/bucket/data/dir-07/sub/file.txt')
+        attrs.size() == 10
+        attrs.isRegularFile()
+        dirAttrs.isDirectory()
+        and:
+        s3.listRequests.every { it.bucketName == 'inventory' }
+        s3.count('getObjectMetadata') == 0
+
+        when:
+        Files.readAttributes(fs.getPath('/bucket/data/new.txt'), BasicFileAttributes)
+        then:
+        thrown(NoSuchFileException)
+
+        when:
+        def others = Files.newDirectoryStream(fs.getPath('/other-bucket/')).collect { it.toString() }
+        then:
+        others == []
+        s3.listRequests.any { it.bucketName == 'other-bucket' }
+    }
+
+    def 'should not use the inventory for the paths modified through the file system' () {
+        given:
+        def s3 = tree()
+        report(s3, '2020-01-01T00-00Z', new Date())
+        def fs = s3.newFileSystem(inventory_manifest: 's3://inventory/inventory/bucket/daily/')
+        def file = fs.getPath('/bucket/data/new.txt')
+        def deleted = fs.getPath('/bucket/data/file-010.txt')
+
+        when:
+        Files.write(file, 'Hello'.bytes)
+        Files.delete(deleted)
+        then:
+        Files.exists(file)
+        Files.size(file) == 5
+        !Files.exists(deleted)
+        and:
+        def entries = Files.newDirectoryStream(fs.getPath('/bucket/data')).collect { it.fileName.toString() }
+        entries.contains('new.txt')
+        !entries.contains('file-010.txt')
+        s3.listRequests.any { it.bucketName == 'bucket' && it.prefix == 'data/' }
+
+        when:
+        s3.listRequests.clear()
+        def other = Files.newDirectoryStream(fs.getPath('/bucket/data/dir-01')).collect { it.fileName.toString() }
+        then:
+        other == ['sub']
+        s3.listRequests.every { it.bucketName == 'inventory' }
+    }
+
+    def 'should load only the keys under the configured prefixes' () {
+        given:
+        def s3 = tree()
+        report(s3, '2020-01-01T00-00Z', new Date())
+        def fs = s3.newFileSystem(inventory_manifest: 's3://inventory/inventory/bucket/daily/', inventory_prefixes: 'data/dir-01/, /data/dir-02')
+
+        when:
+        def entries = Files.newDirectoryStream(fs.getPath('/bucket/data/dir-02/sub')).collect { it.fileName.toString() }
+        then:
+        fs.inventory.prefixes == ['data/dir-01/', 'data/dir-02/']
+        fs.inventory.getSnapshot('bucket').size() == 2
+        entries == ['file.txt']
+        Files.isDirectory(fs.getPath('/bucket/data/dir-01'))
+        s3.listRequests.every { it.bucketName == 'inventory' }
+
+        when:
+        entries = Files.newDirectoryStream(fs.getPath('/bucket/data')).collect { it.fileName.toString() }
+        then:
+        entries.size() == 83
+        s3.listRequests.any { it.bucketName == 'bucket' && it.prefix == 'data/' }
+    }
+
+    def 'should apply the stale policy' () {
+        given:
+        def s3 = tree()
+        report(s3, '2020-01-01T00-00Z', new Date(System.currentTimeMillis() - 3_600_000))
+        s3.put('bucket', 'data/new.txt', 'new')
+        def fs = s3.newFileSystem(inventory_manifest: 's3://inventory/inventory/bucket/daily/2020-01-01T00-00Z/manifest.json', inventory_max_age: MAX_AGE, inventory_stale_policy: POLICY)
+        def dir = fs.getPath('/bucket/data')
+
+        when:
+        def entries = Files.newDirectoryStream(dir).collect { it.fileName.toString() }
+        then:
+        entries.contains('new.txt') == LIVE
+        s3.listRequests.any { it.bucketName == 'bucket' } == LIVE
+
+        where:
+        MAX_AGE     | POLICY    | LIVE
+        '7200000'   | 'live'    | false
+        '0'         | 'live'    | false
+        '60000'     | 'live'    | true
+        '60000'     | 'use'     | false
+    }
+
+    def 'should fail when the inventory is stale' () {
+        given:
+        def s3 = tree()
+        report(s3, '2020-01-01T00-00Z', new Date(0))
+        def fs = s3.newFileSystem(inventory_manifest: 's3://inventory/inventory/bucket/daily/', inventory_stale_policy: 'fail')
+
+        when:
+        Files.newDirectoryStream(fs.getPath('/bucket/data')).iterator().hasNext()
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def 'should use the live listing when the inventory cannot be used' () {
+        given:
+        def s3 = tree()
+        report(s3, '2020-01-01T00-00Z', new Date(), 'ORC')
+        def fs = s3.newFileSystem(inventory_manifest: 's3://inventory/inventory/bucket/daily/')
+
+        when:
+        def entries = Files.newDirectoryStream(fs.getPath('/bucket/data')).collect { it.fileName.toString() }
+        then:
+        entries.size() == 83
+        fs.inventory.getSnapshot('bucket') == null
+        s3.listRequests.any { it.bucketName == 'bucket' }
+    }
+}
@@ -0,0 +1,264 @@
+package com.upplication.s3fs.util
+
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+
+import com.upplication.s3fs.InMemoryS3
+import com.upplication.s3fs.S3FileSystem
+import spock.lang.Specification
+
+class S3ListingIndexTest extends Specification {
+
+    static InMemoryS3 tree() {
+        def s3 = new InMemoryS3()
+        for( int i=0; i<2500; i++ )
+            s3.put('bucket', String.format('inputs/sample-%02d/reads-%04d.fq.gz', i % 10, i), 'x' * (i % 7))
+        s3.put('bucket', 'inputs/my file.txt', 'spaces')
+        s3.put('bucket', 'outputs/result.txt', 'z')
+        return s3
+    }
+
+    static S3FileSystem newFileSystem(InMemoryS3 s3, Path dir, Map<String,String> opts=[:]) {
+        s3.newFileSystem([listing_index_dir: dir.toString(), listing_index_prefixes: 's3://bucket/inputs'] + opts)
+    }
+
+    static List<String> list(S3FileSystem fs, String path) {
+        Files.newDirectoryStream(fs.getPath(path)).collect { it.fileName.toString() }.sort()
+    }
+
+    static List<String> listed(InMemoryS3 s3) {
+        s3.listRequests.findAll { it.bucketName == 'bucket' }.collect { it.startAfter }
+    }
+
+    def 'should build the index and serve the following runs from the saved files' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+
+        when:
+        def fs = newFileSystem(s3, dir)
+        def entries = list(fs, '/bucket/inputs')
+        def sample = list(fs, '/bucket/inputs/sample-03')
+        def attrs = Files.readAttributes(fs.getPath('/bucket/inputs/sample-03/reads-0013.fq.gz'), BasicFileAttributes)
+        then:
+        entries == ['my file.txt'] + (0..9).collect { String.format('sample-%02d', it) }
+        sample.size() == 250
+        attrs.size() == 13 % 7
+        Files.isDirectory(fs.getPath('/bucket/inputs/sample-03'))
+        !Files.exists(fs.getPath('/bucket/inputs/sample-03/missing.txt'))
+        Files.list(dir).count() == 2
+        and:
+        // the index is built with a full listing
+        s3.count('listObjectsV2') == 3
+        s3.count('getObjectMetadata') == 0
+
+        when:
+        s3.resetCounters()
+        def other = newFileSystem(s3, dir)
+        entries = list(other, '/bucket/inputs')
+        def walked = Files.walk(other.getPath('/bucket/inputs')).count()
+        then:
+        entries.size() == 11
+        walked == 1 + 11 + 2500
+        s3.count('listObjectsV2') == 0
+        s3.count('getObjectMetadata') == 0
+
+        when:
+        def outputs = list(other, '/bucket/outputs')
+        then:
+        outputs == ['result.txt']
+        s3.count('listObjectsV2') == 1
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should refresh the index with the keys after the greatest one' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+        list(newFileSystem(s3, dir), '/bucket/inputs')
+        s3.put('bucket', 'inputs/sample-10/reads-9000.fq.gz', 'new')
+        s3.put('bucket', 'inputs/sample-11/reads-9001.fq.gz', 'new')
+        s3.resetCounters()
+        s3.listRequests.clear()
+
+        when:
+        def fs = newFileSystem(s3, dir, [listing_index_refresh_interval: '0'])
+        def entries = list(fs, '/bucket/inputs')
+        then:
+        entries.size() == 13
+        entries.contains('sample-11')
+        // a single page listing started right before the greatest indexed key
+        listed(s3) == ['inputs/sample-09/reads-2489.fq.gz']
+
+        when:
+        s3.listRequests.clear()
+        def other = newFileSystem(s3, dir)
+        then:
+        list(other, '/bucket/inputs/sample-11') == ['reads-9001.fq.gz']
+        listed(s3) == []
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should rebuild the index when the greatest key changed' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+        list(newFileSystem(s3, dir), '/bucket/inputs')
+        s3.put('bucket', 'inputs/sample-09/reads-2499.fq.gz', 'changed')
+        s3.put('bucket', 'inputs/sample-05/reads-9000.fq.gz', 'inserted')
+        s3.listRequests.clear()
+
+        when:
+        def fs = newFileSystem(s3, dir, [listing_index_refresh_interval: '0'])
+        def sample = list(fs, '/bucket/inputs/sample-05')
+        then:
+        sample.size() == 251
+        sample.contains('reads-9000.fq.gz')
+        Files.size(fs.getPath('/bucket/inputs/sample-09/reads-2499.fq.gz')) == 7
+        // the probe of the greatest key followed by the full listing pages
+        listed(s3).take(4) == ['inputs/sample-09/reads-2489.fq.gz', null, null, null]
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should rebuild the index older than the max age' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+        list(newFileSystem(s3, dir), '/bucket/inputs')
+        s3.put('bucket', 'inputs/sample-03/reads-0013.fq.gz', 'overwritten')
+        s3.buckets['bucket'].remove('inputs/sample-03/reads-0023.fq.gz')
+        and:
+        // age the saved index past the default max age
+        def propsFile = Files.list(dir).find { it.fileName.toString().endsWith('.properties') }
+        def props = new Properties()
+        propsFile.withInputStream { props.load(it) }
+        props.setProperty('created', String.valueOf(System.currentTimeMillis() - S3ListingIndex.DEFAULT_MAX_AGE - 1000))
+        propsFile.withOutputStream { props.store(it, null) }
+        s3.resetCounters()
+
+        when:
+        def fs = newFileSystem(s3, dir)
+        then:
+        Files.size(fs.getPath('/bucket/inputs/sample-03/reads-0013.fq.gz')) == 11
+        !Files.exists(fs.getPath('/bucket/inputs/sample-03/reads-0023.fq.gz'))
+        s3.count('listObjectsV2') == 3
+        s3.count('getObjectMetadata') == 0
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should apply the changes made through the file system to the index' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+        def fs = newFileSystem(s3, dir)
+        list(fs, '/bucket/inputs')
+
+        when:
+        Files.write(fs.getPath('/bucket/inputs/sample-03/new.txt'), 'Hello'.bytes)
+        s3.resetCounters()
+        then:
+        list(fs, '/bucket/inputs/sample-03').contains('new.txt')
+        Files.exists(fs.getPath('/bucket/inputs/sample-03/new.txt'))
+        s3.count('listObjectsV2') == 0
+        s3.count('getObjectMetadata') == 0
+        and:
+        // the upload response does not report the last modified time
+        Files.size(fs.getPath('/bucket/inputs/sample-03/new.txt')) == 5
+        s3.count('getObjectMetadata') == 1
+        and:
+        // the saved index is discarded
+        list(newFileSystem(s3, dir), '/bucket/inputs/sample-03').contains('new.txt')
+        s3.count('listObjectsV2') == 3
+
+        when:
+        s3.resetCounters()
+        Files.delete(fs.getPath('/bucket/inputs/sample-03/new.txt'))
+        then:
+        !list(fs, '/bucket/inputs/sample-03').contains('new.txt')
+        !Files.exists(fs.getPath('/bucket/inputs/sample-03/new.txt'))
+        s3.count('listObjectsV2') == 0
+
+        when:
+        Files.readAttributes(fs.getPath('/bucket/inputs/sample-03/new.txt'), BasicFileAttributes)
+        then:
+        thrown(NoSuchFileException)
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should not use the index after a change with unknown attributes' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+        def fs = newFileSystem(s3, dir)
+        list(fs, '/bucket/inputs')
+
+        when:
+        Files.createDirectory(fs.getPath('/bucket/inputs/sample-20'))
+        s3.resetCounters()
+        then:
+        list(fs, '/bucket/inputs').contains('sample-20')
+        s3.count('listObjectsV2') == 1
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should wait the refresh interval before retrying a failed index update' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+        def fs = newFileSystem(s3, dir)
+        def paths = (0..<5).collect { fs.getPath(String.format('/bucket/inputs/sample-%02d/reads-%04d.fq.gz', it, it)) }
+        s3.denied << 'listObjectsV2'
+
+        when:
+        def sizes = paths.collect { Files.readAttributes(it, BasicFileAttributes).size() }
+        then:
+        sizes == [0L, 1L, 2L, 3L, 4L]
+        // the index listing is attempted once, then the objects are looked up with live requests
+        s3.count('listObjectsV2') == 1
+        s3.count('getObjectMetadata') == 5
+
+        when:
+        s3.denied.clear()
+        Files.readAttributes(fs.getPath('/bucket/inputs/sample-05/reads-0005.fq.gz'), BasicFileAttributes)
+        then:
+        s3.count('listObjectsV2') == 1
+        s3.count('getObjectMetadata') == 6
+
+        cleanup:
+        dir?.deleteDir()
+    }
+
+    def 'should look up the indexed attributes without requests' () {
+        given:
+        def s3 = tree()
+        def dir = Files.createTempDirectory('test')
+        def fs = newFileSystem(s3, dir)
+        def paths = (0..<2500).collect { fs.getPath(String.format('/bucket/inputs/sample-%02d/reads-%04d.fq.gz', it % 10, it)) }
+        Files.readAttributes(paths[0], BasicFileAttributes)
+        def listings = s3.count('listObjectsV2')
+
+        when:
+        def sizes = paths.collect { Files.readAttributes(it, BasicFileAttributes).size() }
+        then:
+        sizes == (0..<2500).collect { (long) (it % 7) }
+        s3.count('getObjectMetadata') == 0
+        s3.count('listObjectsV2') == listings
+
+        cleanup:
+        dir?.deleteDir()
+    }
+}
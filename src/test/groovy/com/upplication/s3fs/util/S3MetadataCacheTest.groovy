@@ -0,0 +1,269 @@
+package com.upplication.s3fs.util
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardOpenOption
+
+import com.upplication.s3fs.InMemoryS3
+import com.upplication.s3fs.S3FileAttributes
+import spock.lang.Specification
+
+class S3MetadataCacheTest extends Specification {
+
+    def 'should create the cache with the given options' () {
+        when:
+        def cache = new S3MetadataCache(new Properties())
+        then:
+        cache.enabled
+        cache.maxSize == S3MetadataCache.DEFAULT_MAX_SIZE
+        cache.ttl == S3MetadataCache.DEFAULT_TTL
+
+        when:
+        def props = new Properties()
+        props.putAll(metadata_cache_max_size: '100', metadata_cache_ttl: '60000')
+        cache = new S3MetadataCache(props)
+        then:
+        cache.enabled
+        cache.maxSize == 100
+        cache.ttl == 60_000
+
+        when:
+        props = new Properties()
+        props.putAll(metadata_cache_enabled: 'false')
+        cache = new S3MetadataCache(props)
+        then:
+        !cache.enabled
+    }
+
+    def 'should cache the lookup of files and directories' () {
+        given:
+        def s3 = new InMemoryS3()
+                .put('bucket', 'data/file.txt', 'Hello')
+                .put('bucket', 'data/dir/foo.txt', 'Hola')
+        def fs = s3.newFileSystem()
+        def file = fs.getPath('/bucket/data/file.txt')
+        def dir = fs.getPath('/bucket/data/dir')
+
+        when:
+        def attrs1 = Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes)
+        def attrs2 = Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes)
+        then:
+        attrs1.size() == 5
+        attrs2.size() == 5
+        s3.count('getObjectMetadata') == 1
+
+        when:
+        def isDir1 = Files.isDirectory(dir)
+        def isDir2 = Files.isDirectory(dir)
+        then:
+        isDir1
+        isDir2
+        s3.count('getObjectMetadata') == 2
+        s3.count('listObjectsV2') == 1
+        fs.metadataCache.hitCount == 2
+        fs.metadataCache.missCount == 2
+    }
+
+    def 'should invalidate the cache on write, copy and delete' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello')
+        def fs = s3.newFileSystem()
+        def file = fs.getPath('/bucket/data/file.txt')
+        def copy = fs.getPath('/bucket/data/copy.txt')
+
+        expect:
+        Files.size(file) == 5
+
+        when:
+        Files.write(file, 'Hello world'.bytes)
+        then:
+        Files.size(file) == 11
+
+        when:
+        Files.size(copy)
+        then:
+        thrown(NoSuchFileException)
+
+        when:
+        Files.copy(file, copy)
+        then:
+        Files.size(copy) == 11
+
+        when:
+        Files.delete(file)
+        then:
+        !Files.exists(file)
+    }
+
+    def 'should cache the metadata returned by write, read and copy responses' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/other.txt', 'Hola')
+        def fs = s3.newFileSystem()
+        def file = fs.getPath('/bucket/data/file.txt')
+        def other = fs.getPath('/bucket/data/other.txt')
+        def channel = fs.getPath('/bucket/data/channel.txt')
+        def copy = fs.getPath('/bucket/data/copy.txt')
+
+        when:
+        Files.write(file, 'Hello world'.bytes)
+        s3.resetCounters()
+        then:
+        // the upload response does not report the last modified time, the attributes are looked up once
+        Files.size(file) == 11
+        Files.readAttributes(file, S3FileAttributes).eTag() == s3.blob('bucket', 'data/file.txt').etag
+        Files.readAttributes(file, S3FileAttributes).lastModifiedTime().toMillis() == s3.blob('bucket', 'data/file.txt').lastModified.time
+        s3.totalRequests == 1
+
+        when:
+        Files.newByteChannel(channel, StandardOpenOption.CREATE, StandardOpenOption.WRITE).withCloseable { it.write(ByteBuffer.wrap('Hello'.bytes)) }
+        s3.resetCounters()
+        then:
+        Files.size(channel) == 5
+        Files.size(channel) == 5
+        s3.totalRequests == 1
+
+        when:
+        def text = Files.newInputStream(other).withCloseable { it.text }
+        s3.resetCounters()
+        then:
+        text == 'Hola'
+        Files.size(other) == 4
+        s3.totalRequests == 0
+
+        when:
+        Files.copy(file, copy)
+        s3.resetCounters()
+        then:
+        Files.size(copy) == 11
+        Files.readAttributes(copy, S3FileAttributes).eTag() == s3.blob('bucket', 'data/copy.txt').etag
+        s3.totalRequests == 0
+    }
+
+    def 'should not cache when disabled' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello')
+        def fs = s3.newFileSystem(metadata_cache_enabled: 'false')
+        def file = fs.getPath('/bucket/data/file.txt')
+
+        when:
+        Files.exists(file)
+        Files.exists(file)
+        then:
+        s3.count('getObjectMetadata') == 2
+        fs.metadataCache.size() == 0
+    }
+
+    def 'should consider stale the listing attributes when the write records are evicted' () {
+        given:
+        def fs = new InMemoryS3().newFileSystem(metadata_cache_enabled: 'false')
+        def cache = fs.metadataCache
+        def path = fs.getPath('/bucket/data/file.txt')
+        def listed = System.currentTimeMillis()
+        sleep 5
+
+        expect:
+        cache.isFresh(path, listed)
+
+        when:
+        for( int i=0; i<2 * S3MetadataCache.DEFAULT_MAX_SIZE; i++ )
+            cache.invalidate(fs.getPath("/bucket/data/file-${i}.txt"))
+        then:
+        !cache.isFresh(path, listed)
+
+        when:
+        sleep 5
+        then:
+        cache.isFresh(path, System.currentTimeMillis())
+    }
+
+    def 'should expire the cached entries' () {
+        given:
+        def s3 = new InMemoryS3().put('bucket', 'data/file.txt', 'Hello')
+        def fs = s3.newFileSystem(metadata_cache_ttl: '50')
+        def file = fs.getPath('/bucket/data/file.txt')
+
+        when:
+        Files.exists(file)
+        sleep 100
+        Files.exists(file)
+        then:
+        s3.count('getObjectMetadata') == 2
+    }
+
+    def 'should cache the missing paths' () {
+        given:
+        def s3 = new InMemoryS3()
+        def fs = s3.newFileSystem(metadata_cache_negative_ttl: '60000')
+        def file = fs.getPath('/bucket/data/out/file.txt')
+
+        when:
+        def exists1 = Files.exists(file)
+        def exists2 = Files.exists(file)
+        then:
+        !exists1
+        !exists2
+        s3.count('listObjectsV2') == 1
+        fs.metadataCache.negativeHitCount == 1
+
+        when:
+        Files.exists(fs.getPath('/bucket/data/out'))
+        Files.write(file, 'Hello'.bytes)
+        then:
+        Files.exists(file)
+        Files.isDirectory(fs.getPath('/bucket/data/out'))
+    }
+
+    def 'should not cache the missing paths when the negative ttl is zero' () {
+        given:
+        def s3 = new InMemoryS3()
+        def fs = s3.newFileSystem(metadata_cache_negative_ttl: '0')
+        def file = fs.getPath('/bucket/data/file.txt')
+
+        when:
+        Files.exists(file)
+        Files.exists(file)
+        then:
+        s3.count('listObjectsV2') == 2
+    }
+
+    def 'should prefetch the directory content when many siblings are looked up' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<2500; i++ )
+            s3.put('bucket', String.format('data/file-%04d.txt', i), 'x' * (i % 10))
+        s3.put('bucket', 'data/sub/foo.txt', 'foo')
+        def fs = s3.newFileSystem(metadata_prefetch_threshold: '10')
+
+        when:
+        def sizes = (0..<2500).collect { Files.size(fs.getPath(String.format('/bucket/data/file-%04d.txt', it))) }
+        then:
+        sizes == (0..<2500).collect { (long) (it % 10) }
+        s3.count('getObjectMetadata') == 9
+        s3.count('listObjectsV2') == 3
+
+        when:
+        Files.size(fs.getPath('/bucket/data/missing.txt'))
+        then:
+        thrown(NoSuchFileException)
+        s3.count('getObjectMetadata') == 10
+        s3.count('listObjectsV2') == 4
+
+        expect:
+        Files.isDirectory(fs.getPath('/bucket/data/sub'))
+    }
+
+    def 'should not prefetch when the threshold is zero' () {
+        given:
+        def s3 = new InMemoryS3()
+        for( int i=0; i<50; i++ )
+            s3.put('bucket', "data/file-${i}.txt", 'x')
+        def fs = s3.newFileSystem(metadata_prefetch_threshold: '0')
+
+        when:
+        (0..<50).each { Files.size(fs.getPath("/bucket/data/file-${it}.txt")) }
+        then:
+        s3.count('getObjectMetadata') == 50
+        s3.count('listObjectsV2') == 0
+    }
+}
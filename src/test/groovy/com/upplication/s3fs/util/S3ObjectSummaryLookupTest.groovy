@@ -0,0 +1,131 @@
+package com.upplication.s3fs.util
+
+import java.nio.file.NoSuchFileException
+import java.util.concurrent.Callable
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+
+import com.upplication.s3fs.InMemoryS3
+import com.upplication.s3fs.S3Path
+import spock.lang.Specification
+
+class S3ObjectSummaryLookupTest extends Specification {
+
+    /*
+     * keys sharing the prefix of the directory `data/a` and sorting before `data/a/`
+     */
+    static InMemoryS3 pathological(int siblings) {
+        final s3 = new InMemoryS3()
+        for( int i=0; i<siblings; i++ )
+            s3.put('bucket', String.format('data/a-%05d', i), 'x')
+        s3.put('bucket', 'data/a/file.txt', 'Hello')
+        s3.put('bucket', 'data/b', 'Hola')
+        return s3
+    }
+
+    def 'should lookup files and directories with a HEAD request' () {
+        given:
+        def s3 = pathological(10)
+        def fs = s3.newFileSystem(metadata_cache_enabled: 'false')
+        def lookup = new S3ObjectSummaryLookup()
+
+        when:
+        def file = lookup.lookup((S3Path) fs.getPath('/bucket/data/b'))
+        then:
+        file.key == 'data/b'
+        file.size == 4
+        file.ETag
+        file.lastModified
+        s3.count('getObjectMetadata') == 1
+        s3.count('listObjectsV2') == 0
+
+        when:
+        def dir = lookup.lookup((S3Path) fs.getPath('/bucket/data/a'))
+        then:
+        dir.key == 'data/a/file.txt'
+        s3.count('getObjectMetadata') == 2
+        s3.count('listObjectsV2') == 1
+
+        when:
+        lookup.lookup((S3Path) fs.getPath('/bucket/data/c'))
+        then:
+        thrown(NoSuchFileException)
+    }
+
+    def 'should fall back on the listing lookup when HEAD is not allowed' () {
+        given:
+        def s3 = pathological(10)
+        s3.denied.add('getObjectMetadata')
+        def fs = s3.newFileSystem(metadata_cache_enabled: 'false')
+        def lookup = new S3ObjectSummaryLookup()
+
+        expect:
+        lookup.lookup((S3Path) fs.getPath('/bucket/data/b')).key == 'data/b'
+        lookup.lookup((S3Path) fs.getPath('/bucket/data/a')).key == 'data/a/file.txt'
+    }
+
+    def 'should compare the number of requests of the lookup strategies' () {
+        given:
+        def s3 = pathological(10_000)
+        def fs = s3.newFileSystem(metadata_cache_enabled: 'false')
+        def lookup = new S3ObjectSummaryLookup()
+        def dir = (S3Path) fs.getPath('/bucket/data/a')
+        def missing = (S3Path) fs.getPath('/bucket/data/a-')
+
+        when:
+        s3.resetCounters()
+        lookup.listLookup(dir)
+        def listDir = s3.totalRequests
+        s3.resetCounters()
+        try { lookup.listLookup(missing) } catch (NoSuchFileException e) { }
+        def listMissing = s3.totalRequests
+        and:
+        s3.resetCounters()
+        lookup.headLookup(dir)
+        def headDir = s3.totalRequests
+        s3.resetCounters()
+        try { lookup.headLookup(missing) } catch (NoSuchFileException e) { }
+        def headMissing = s3.totalRequests
+        then:
+        listDir == 41
+        listMissing == 40
+        headDir == 2
+        headMissing == 2
+    }
+
+    def 'should share the same request among concurrent lookups' () {
+        given:
+        def s3 = pathological(10)
+        def fs = s3.newFileSystem(metadata_cache_enabled: 'false')
+        def lookup = new S3ObjectSummaryLookup()
+        def file = (S3Path) fs.getPath('/bucket/data/b')
+        def missing = (S3Path) fs.getPath('/bucket/data/c')
+        def barrier = new CyclicBarrier(16)
+        s3.latency = 200
+
+        when:
+        def pool = Executors.newFixedThreadPool(16)
+        def results = (1..16).collect { pool.submit({ barrier.await(); lookup.lookup(file).key } as Callable) }*.get()
+        then:
+        results.every { it == 'data/b' }
+        s3.count('getObjectMetadata') == 1
+
+        when:
+        s3.resetCounters()
+        def errors = (1..16).collect { pool.submit({ barrier.await(); try { lookup.lookup(missing) } catch (NoSuchFileException e) { e } } as Callable) }*.get()
+        then:
+        errors.every { it instanceof NoSuchFileException }
+        s3.count('getObjectMetadata') == 1
+        s3.count('listObjectsV2') == 1
+
+        when:
+        s3.resetCounters()
+        def metas = (1..16).collect { pool.submit({ barrier.await(); lookup.getS3ObjectMetadata(file) } as Callable) }*.get()
+        then:
+        metas.every { it.contentLength == 4 }
+        s3.count('getObjectMetadata') == 1
+
+        cleanup:
+        pool?.shutdown()
+    }
+}